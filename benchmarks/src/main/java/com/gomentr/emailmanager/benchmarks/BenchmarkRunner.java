@@ -0,0 +1,25 @@
+package com.gomentr.emailmanager.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmarks jar
+ * Takes the usual JMH command line and always adds the GC profiler,
+ * which reports the bytes allocated per operation (gc.alloc.rate.norm)
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args)
+            throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+}
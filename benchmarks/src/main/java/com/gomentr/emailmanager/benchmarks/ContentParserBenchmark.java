@@ -0,0 +1,77 @@
+package com.gomentr.emailmanager.benchmarks;
+
+import com.gomentr.emailmanager.parsers.ContentParser;
+import com.gomentr.emailmanager.parsers.CssContentParser;
+import com.gomentr.emailmanager.parsers.GmailContentParser;
+import com.gomentr.emailmanager.parsers.HtmlContentParser;
+import com.gomentr.emailmanager.parsers.HtmlStripContentParser;
+import com.gomentr.emailmanager.parsers.QuoteContentParser;
+import com.gomentr.emailmanager.parsers.ScriptContentParser;
+import com.gomentr.emailmanager.parsers.TextContentParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs each content parser on its own over every corpus input
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentParserBenchmark {
+
+    @Param({ "Text", "Html", "Gmail", "Css", "Script", "HtmlStrip", "Quote" })
+    public String parser;
+
+    @Param({ Corpus.GMAIL_HTML, Corpus.GMAIL_PLAIN, Corpus.OUTLOOK_HTML, Corpus.OUTLOOK_PLAIN,
+            Corpus.APPLE_HTML, Corpus.APPLE_PLAIN, Corpus.PLAIN_TEXT,
+            Corpus.HUGE_HTML, Corpus.LONG_QUOTE_CHAIN, Corpus.NESTED_BLOCKQUOTES, Corpus.HEADER_LIKE_LINE })
+    public String input;
+
+    private ContentParser contentParser;
+    private String content;
+
+    @Setup
+    public void setup()
+            throws Exception {
+        contentParser = createParser(parser);
+        content = Corpus.load(input);
+    }
+
+    @Benchmark
+    public String parse() {
+        return contentParser.parse(content);
+    }
+
+    static ContentParser createParser(String name) {
+        if ("Text".equals(name))
+            return new TextContentParser();
+        if ("Html".equals(name))
+            return new HtmlContentParser();
+        if ("Gmail".equals(name))
+            return new GmailContentParser();
+        if ("Css".equals(name))
+            return new CssContentParser();
+        if ("Script".equals(name))
+            return new ScriptContentParser();
+        if ("HtmlStrip".equals(name))
+            return new HtmlStripContentParser();
+        if ("Quote".equals(name))
+            return new QuoteContentParser();
+        throw new IllegalArgumentException("Unknown parser " + name);
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.gomentr.emailmanager.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Inputs of the parser benchmarks
+ * Typical replies are checked in under the corpus resources, the
+ * pathological ones are generated so the repository stays small
+ */
+public class Corpus {
+
+    /** replies as sent by the common clients, in src/main/resources/corpus */
+    public static final String GMAIL_HTML = "gmail_html.html";
+    public static final String GMAIL_PLAIN = "gmail_plain.txt";
+    public static final String OUTLOOK_HTML = "outlook_html.html";
+    public static final String OUTLOOK_PLAIN = "outlook_plain.txt";
+    public static final String APPLE_HTML = "apple_html.html";
+    public static final String APPLE_PLAIN = "apple_plain.txt";
+    public static final String PLAIN_TEXT = "plain_text.txt";
+
+    /** generated inputs */
+    public static final String HUGE_HTML = "huge_html";
+    public static final String LONG_QUOTE_CHAIN = "long_quote_chain";
+    public static final String NESTED_BLOCKQUOTES = "nested_blockquotes";
+    public static final String HEADER_LIKE_LINE = "header_like_line";
+
+    static final int HUGE_HTML_PARAGRAPHS = 20000;
+    static final int QUOTE_CHAIN_DEPTH = 200;
+    static final int HEADER_LIKE_TOKENS = 2000;
+
+    //region CORPUS METHODS
+
+    public static String load(String name)
+            throws IOException {
+        if (HUGE_HTML.equals(name))
+            return generateHugeHtml();
+        if (LONG_QUOTE_CHAIN.equals(name))
+            return generateLongQuoteChain();
+        if (NESTED_BLOCKQUOTES.equals(name))
+            return generateNestedBlockquotes();
+        if (HEADER_LIKE_LINE.equals(name))
+            return generateHeaderLikeLine();
+        return loadResource(name);
+    }
+
+    static String loadResource(String name)
+            throws IOException {
+        InputStream input = Corpus.class.getResourceAsStream("/corpus/" + name);
+        if (input == null)
+            throw new IOException("Unknown corpus entry " + name);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) > 0)
+                output.write(buffer, 0, read);
+            return output.toString("UTF-8");
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    /**
+     * About 1.4 MB of styled HTML with a head, a script and a gmail_extra tail
+     */
+    static String generateHugeHtml() {
+        StringBuilder content = new StringBuilder();
+        content.append("<html><head><meta charset=\"utf-8\"><style>p { margin: 0; }</style></head><body>");
+        content.append("<script type=\"text/javascript\">var tracking = true;</script>");
+        for (int i = 0; i < HUGE_HTML_PARAGRAPHS; i++) {
+            content.append("<p class=\"c").append(i % 10).append("\" style=\"margin:").append(i % 5)
+                    .append("px\">Paragraph ").append(i).append(" of a very long reply</p>\n");
+        }
+        content.append("<div class=\"gmail_extra\"><br><div class=\"gmail_quote\">On Fri, Sep 4, 2015 at 3:15 PM, ")
+                .append("GoMentr Omar &lt;oaddam+5@gomentr.com&gt; wrote:<br><blockquote>Hello</blockquote></div></div>");
+        content.append("</body></html>");
+        return content.toString();
+    }
+
+    /**
+     * A short reply on top of a thread where every message quotes the previous one
+     */
+    static String generateLongQuoteChain() {
+        StringBuilder content = new StringBuilder("New reply on top.\n\n");
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < QUOTE_CHAIN_DEPTH; i++) {
+            prefix.append('>');
+            content.append(prefix).append(" On Mon, Jun 7, 2010 at 8:50 PM, Person ").append(i)
+                    .append(" <p").append(i).append("@example.com> wrote:\n");
+            content.append(prefix).append(" message body ").append(i).append('\n');
+        }
+        return content.toString();
+    }
+
+    /**
+     * The same thread as HTML, with one blockquote per quoted message
+     */
+    static String generateNestedBlockquotes() {
+        StringBuilder content = new StringBuilder("<div dir=\"ltr\">New reply on top.</div>");
+        for (int i = 0; i < QUOTE_CHAIN_DEPTH; i++) {
+            content.append("<div>On Mon, Jun 7, 2010 at 8:50 PM, Person ").append(i).append(" wrote:<br>")
+                    .append("<blockquote type=\"cite\">message body ").append(i);
+        }
+        for (int i = 0; i < QUOTE_CHAIN_DEPTH; i++)
+            content.append("</blockquote></div>");
+        return content.toString();
+    }
+
+    /**
+     * A single long line full of dates and header labels that never forms
+     * a quote header, the input that made the quote regex backtrack
+     */
+    static String generateHeaderLikeLine() {
+        StringBuilder content = new StringBuilder("Reply text\n");
+        for (int i = 0; i < HEADER_LIKE_TOKENS; i++)
+            content.append("On ").append(i % 28 + 1).append(" Sep 2015 ").append(i % 12).append(":15 from ");
+        content.append('\n');
+        return content.toString();
+    }
+
+    //endregion
+
+}
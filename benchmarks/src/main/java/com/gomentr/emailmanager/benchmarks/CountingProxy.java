@@ -0,0 +1,142 @@
+package com.gomentr.emailmanager.benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TCP proxy placed between the email manager and the embedded server
+ * Counts the connections and the round trips, a round trip being each time
+ * the client speaks after the server did, so pipelined commands count once
+ * The traffic may be encrypted, nothing is decoded, TLS handshakes count too
+ */
+public class CountingProxy implements Runnable {
+
+    //region VARIABLES
+
+    protected final int targetPort;
+
+    private final ServerSocket serverSocket;
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong roundTrips = new AtomicLong();
+    private final AtomicLong clientBytes = new AtomicLong();
+    private final AtomicLong serverBytes = new AtomicLong();
+    private volatile boolean running = true;
+
+    //endregion
+
+    //region PROXY METHODS
+
+    public void start() {
+        Thread thread = new Thread(this, "counting-proxy-" + getPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void run() {
+        while (running) {
+            try {
+                Socket client = serverSocket.accept();
+                Socket server = new Socket(InetAddress.getLoopbackAddress(), targetPort);
+                client.setTcpNoDelay(true);
+                server.setTcpNoDelay(true);
+                connections.incrementAndGet();
+
+                AtomicBoolean clientSpokeLast = new AtomicBoolean(false);
+                pump(client, server, true, clientSpokeLast);
+                pump(server, client, false, clientSpokeLast);
+            }
+            catch (IOException e) {
+                // The proxy was closed, or one connection failed
+            }
+        }
+    }
+
+    private void pump(final Socket from, final Socket to, final boolean fromClient, final AtomicBoolean clientSpokeLast) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                byte[] buffer = new byte[16384];
+                try {
+                    InputStream input = from.getInputStream();
+                    OutputStream output = to.getOutputStream();
+                    int read;
+                    while ((read = input.read(buffer)) > 0) {
+                        if (fromClient) {
+                            if (!clientSpokeLast.getAndSet(true))
+                                roundTrips.incrementAndGet();
+                            clientBytes.addAndGet(read);
+                        }
+                        else {
+                            clientSpokeLast.set(false);
+                            serverBytes.addAndGet(read);
+                        }
+                        output.write(buffer, 0, read);
+                        output.flush();
+                    }
+                }
+                catch (IOException e) {
+                    // The other side closed the connection
+                }
+                finally {
+                    closeQuietly(from);
+                    closeQuietly(to);
+                }
+            }
+        }, "counting-proxy-pump");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void close() {
+        running = false;
+        closeQuietly(serverSocket);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public long getConnectionCount() {
+        return connections.get();
+    }
+
+    public long getRoundTripCount() {
+        return roundTrips.get();
+    }
+
+    public long getClientBytes() {
+        return clientBytes.get();
+    }
+
+    public long getServerBytes() {
+        return serverBytes.get();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        }
+        catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    public CountingProxy(int targetPort)
+            throws IOException {
+        this.targetPort = targetPort;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,85 @@
+package com.gomentr.emailmanager.benchmarks;
+
+import com.gomentr.emailmanager.helpers.EmailReceiver;
+import com.gomentr.emailmanager.helpers.EmailSender;
+
+/**
+ * Regression gate for the I/O paths, runs without network in a few seconds
+ * Sends and reads a batch of messages through the embedded server and
+ * fails when a path opens more connections or makes more round trips per
+ * message than allowed
+ * The limits can be changed with the gate.* system properties
+ */
+public class EndToEndGate {
+
+    static final int MESSAGE_COUNT = Integer.getInteger("gate.messages", 200);
+    static final double MAX_SEND_ROUND_TRIPS = Double.parseDouble(System.getProperty("gate.sendRoundTrips", "8"));
+    static final int RECEIVE_FOLDERS = 3;
+    static final double MAX_RECEIVE_ROUND_TRIPS = Double.parseDouble(System.getProperty("gate.receiveRoundTrips", "4"));
+
+    public static void main(String[] args)
+            throws Exception {
+        MailHarness harness = new MailHarness();
+        boolean passed;
+        try {
+            passed = checkSend(harness) & checkReceive(harness);
+        }
+        finally {
+            harness.close();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Sequential sends must all go through one pooled connection
+     */
+    static boolean checkSend(MailHarness harness)
+            throws Exception {
+        CountingProxy proxy = harness.getSmtpProxy();
+        EmailSender sender = harness.createSender();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < MESSAGE_COUNT; i++)
+                sender.sendEmail(String.valueOf(i), MailHarness.RECIPIENT, "Notification " + i, "Reply to this email.");
+        }
+        finally {
+            sender.close();
+        }
+        return report("send", start, MESSAGE_COUNT, proxy.getConnectionCount(), proxy.getRoundTripCount(),
+                1, MAX_SEND_ROUND_TRIPS);
+    }
+
+    /**
+     * A read must use one connection per folder it opens and batch its commands
+     * The receiver opens the inbox, processed and error folders, JavaMail lends
+     * the connection of the store to the first one and gives the others their own
+     */
+    static boolean checkReceive(MailHarness harness)
+            throws Exception {
+        harness.purge();
+        harness.seedInbox(MESSAGE_COUNT, 2048, 0.5, 1);
+
+        CountingProxy proxy = harness.getImapProxy();
+        EmailReceiver receiver = harness.createReceiver();
+        long start = System.nanoTime();
+        int read = receiver.readEmails(true).size();
+        boolean passed = report("receive", start, read, proxy.getConnectionCount(), proxy.getRoundTripCount(),
+                RECEIVE_FOLDERS, MAX_RECEIVE_ROUND_TRIPS);
+        if (read != MESSAGE_COUNT) {
+            System.out.println("receive: read " + read + " of " + MESSAGE_COUNT + " messages");
+            passed = false;
+        }
+        return passed;
+    }
+
+    private static boolean report(String path, long startNanos, int messages, long connections, long roundTrips,
+                                  long maxConnections, double maxRoundTrips) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        double roundTripsPerMessage = messages > 0 ? (double) roundTrips / messages : 0;
+        boolean passed = connections <= maxConnections && roundTripsPerMessage <= maxRoundTrips;
+        System.out.println(String.format("%s: %d messages, %.1f messages/s, %d connections, %.2f round trips/message %s",
+                path, messages, messages / seconds, connections, roundTripsPerMessage, passed ? "OK" : "FAILED"));
+        return passed;
+    }
+
+}
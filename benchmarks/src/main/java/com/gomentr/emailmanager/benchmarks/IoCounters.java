@@ -0,0 +1,40 @@
+package com.gomentr.emailmanager.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Connections and round trips seen by a proxy during an iteration,
+ * reported next to the scores of the end to end benchmarks
+ * The proxy is shared, so the counts are exact with a single benchmark thread
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class IoCounters {
+
+    public long connections;
+    public long roundTrips;
+
+    private long connectionsMark;
+    private long roundTripsMark;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        connections = 0;
+        roundTrips = 0;
+    }
+
+    void mark(CountingProxy proxy) {
+        connectionsMark = proxy.getConnectionCount();
+        roundTripsMark = proxy.getRoundTripCount();
+    }
+
+    void record(CountingProxy proxy) {
+        connections += proxy.getConnectionCount() - connectionsMark;
+        roundTrips += proxy.getRoundTripCount() - roundTripsMark;
+    }
+
+}
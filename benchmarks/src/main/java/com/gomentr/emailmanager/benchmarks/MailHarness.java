@@ -0,0 +1,194 @@
+package com.gomentr.emailmanager.benchmarks;
+
+import com.gomentr.emailmanager.helpers.EmailReceiver;
+import com.gomentr.emailmanager.helpers.EmailSender;
+import com.icegreen.greenmail.user.GreenMailUser;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+
+import javax.mail.Message;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Embedded SMTP and IMAPS server for the end to end benchmarks
+ * The email manager reaches the server through counting proxies, the
+ * mailbox is seeded in process and does not go through them
+ */
+public class MailHarness {
+
+    public static final String ACCOUNT = "notifications@example.com";
+    public static final String PASSWORD = "secret";
+    public static final String INBOX_FOLDER = "INBOX";
+    public static final String PROCESSED_FOLDER = "Processed";
+    public static final String ERROR_FOLDER = "Errors";
+    public static final String RECIPIENT = "someone@example.com";
+    public static final String REPLY_SUBJECT = "Re: Notification";
+
+    /** spread of the body sizes around their mean, as the sigma of a log-normal */
+    static final double BODY_SIZE_SIGMA = 0.75;
+
+    //region VARIABLES
+
+    private final GreenMail greenMail;
+    private final GreenMailUser user;
+    private final CountingProxy smtpProxy;
+    private final CountingProxy imapProxy;
+    private final Session seedSession = Session.getInstance(new Properties());
+
+    //endregion
+
+    //region HARNESS METHODS
+
+    /**
+     * Creates a sender that connects through the SMTP proxy
+     */
+    public EmailSender createSender() {
+        return new EmailSender("Benchmark", ACCOUNT, PASSWORD, ACCOUNT,
+                "127.0.0.1", String.valueOf(smtpProxy.getPort()));
+    }
+
+    /**
+     * Creates a receiver that connects through the IMAPS proxy
+     */
+    public EmailReceiver createReceiver() {
+        return new EmailReceiver("Benchmark", ACCOUNT, PASSWORD, ACCOUNT,
+                "127.0.0.1", String.valueOf(imapProxy.getPort()),
+                INBOX_FOLDER, PROCESSED_FOLDER, ERROR_FOLDER);
+    }
+
+    /**
+     * Delivers synthetic replies to the inbox
+     * Body sizes follow a log-normal distribution around meanBodyBytes and
+     * htmlShare of the messages are HTML, the rest are plain text
+     */
+    public void seedInbox(int messageCount, int meanBodyBytes, double htmlShare, long seed)
+            throws Exception {
+        Random random = new Random(seed);
+        for (int i = 0; i < messageCount; i++) {
+            int bodyBytes = (int) Math.max(64, meanBodyBytes * Math.exp(BODY_SIZE_SIGMA * random.nextGaussian()
+                    - BODY_SIZE_SIGMA * BODY_SIZE_SIGMA / 2));
+            boolean html = random.nextDouble() < htmlShare;
+            user.deliver(createReply(i, bodyBytes, html));
+        }
+    }
+
+    /**
+     * Delivers messages sent to the untagged address, such as newsletters
+     */
+    public void seedUntagged(int messageCount)
+            throws Exception {
+        for (int i = 0; i < messageCount; i++) {
+            MimeMessage message = new MimeMessage(seedSession);
+            message.setFrom(new InternetAddress(RECIPIENT));
+            message.addRecipient(Message.RecipientType.TO, new InternetAddress(ACCOUNT));
+            message.setSubject("Newsletter " + i);
+            message.setText("Newsletter " + i, "utf-8");
+            message.saveChanges();
+            user.deliver(message);
+        }
+    }
+
+    /**
+     * Returns the number of messages in a folder of the account
+     */
+    public int getMessageCount(String folderName) {
+        return greenMail.getManagers().getImapHostManager().getFolder(user, folderName).getMessageCount();
+    }
+
+    /**
+     * Empties every folder of the account
+     */
+    public void purge()
+            throws Exception {
+        greenMail.purgeEmailFromAllMailboxes();
+    }
+
+    public CountingProxy getSmtpProxy() {
+        return smtpProxy;
+    }
+
+    public CountingProxy getImapProxy() {
+        return imapProxy;
+    }
+
+    public void close() {
+        smtpProxy.close();
+        imapProxy.close();
+        greenMail.stop();
+    }
+
+    private MimeMessage createReply(int index, int bodyBytes, boolean html)
+            throws Exception {
+        String[] address = ACCOUNT.split("@");
+        MimeMessage message = new MimeMessage(seedSession);
+        message.setFrom(new InternetAddress(RECIPIENT));
+        message.addRecipient(Message.RecipientType.TO, new InternetAddress(address[0] + "+" + index + "@" + address[1]));
+        message.setSubject(REPLY_SUBJECT + " " + index);
+        if (html)
+            message.setContent(createHtmlBody(index, bodyBytes), "text/html; charset=utf-8");
+        else
+            message.setText(createPlainBody(index, bodyBytes), "utf-8");
+        message.saveChanges();
+        return message;
+    }
+
+    private String createPlainBody(int index, int bodyBytes) {
+        StringBuilder body = new StringBuilder("Thanks, see you there.\n\n");
+        body.append("On Fri, Sep 4, 2015 at 3:15 PM, Benchmark <").append(ACCOUNT).append("> wrote:\n");
+        while (body.length() < bodyBytes)
+            body.append("> Quoted line ").append(index).append(" of the original notification\n");
+        return body.toString();
+    }
+
+    private String createHtmlBody(int index, int bodyBytes) {
+        StringBuilder body = new StringBuilder("<html><head><style>p { margin: 0; }</style></head><body>");
+        body.append("<div dir=\"ltr\">Thanks, see you there.</div><div class=\"gmail_extra\"><div class=\"gmail_quote\">")
+                .append("On Fri, Sep 4, 2015 at 3:15 PM, Benchmark wrote:<blockquote class=\"gmail_quote\">");
+        while (body.length() < bodyBytes)
+            body.append("<p style=\"margin:0\">Quoted paragraph ").append(index).append(" of the original notification</p>");
+        body.append("</blockquote></div></div></body></html>");
+        return body.toString();
+    }
+
+    private static int findFreePort()
+            throws IOException {
+        ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        try {
+            return socket.getLocalPort();
+        }
+        finally {
+            socket.close();
+        }
+    }
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    public MailHarness()
+            throws Exception {
+        ServerSetup smtp = new ServerSetup(findFreePort(), "127.0.0.1", ServerSetup.PROTOCOL_SMTP);
+        ServerSetup imaps = new ServerSetup(findFreePort(), "127.0.0.1", ServerSetup.PROTOCOL_IMAPS);
+        greenMail = new GreenMail(new ServerSetup[] { smtp, imaps });
+        greenMail.start();
+
+        user = greenMail.setUser(ACCOUNT, ACCOUNT, PASSWORD);
+        greenMail.getManagers().getImapHostManager().createMailbox(user, PROCESSED_FOLDER);
+        greenMail.getManagers().getImapHostManager().createMailbox(user, ERROR_FOLDER);
+
+        smtpProxy = new CountingProxy(smtp.getPort());
+        imapProxy = new CountingProxy(imaps.getPort());
+        smtpProxy.start();
+        imapProxy.start();
+    }
+
+    //endregion
+
+}
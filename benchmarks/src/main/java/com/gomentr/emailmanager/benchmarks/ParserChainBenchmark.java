@@ -0,0 +1,65 @@
+package com.gomentr.emailmanager.benchmarks;
+
+import com.gomentr.emailmanager.helpers.EmailReceiver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the whole parsing step of the email reader over every corpus input
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserChainBenchmark {
+
+    @Param({ Corpus.GMAIL_HTML, Corpus.GMAIL_PLAIN, Corpus.OUTLOOK_HTML, Corpus.OUTLOOK_PLAIN,
+            Corpus.APPLE_HTML, Corpus.APPLE_PLAIN, Corpus.PLAIN_TEXT,
+            Corpus.HUGE_HTML, Corpus.LONG_QUOTE_CHAIN, Corpus.NESTED_BLOCKQUOTES, Corpus.HEADER_LIKE_LINE })
+    public String input;
+
+    private ParsingEmailReceiver emailReceiver;
+    private String content;
+
+    @Setup
+    public void setup()
+            throws Exception {
+        emailReceiver = new ParsingEmailReceiver();
+        content = Corpus.load(input);
+    }
+
+    @Benchmark
+    public String parseEmailReaderMessageContent() {
+        return emailReceiver.parseContent(content);
+    }
+
+    /**
+     * Exposes the parsing step, no connection is ever opened
+     */
+    static class ParsingEmailReceiver extends EmailReceiver {
+
+        String parseContent(String content) {
+            return parseEmailReaderMessageContent(content);
+        }
+
+        ParsingEmailReceiver() {
+            super("Benchmark", "benchmark@example.com", "", "benchmark@example.com",
+                    "localhost", "993", "INBOX", null, null);
+        }
+
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.gomentr.emailmanager.benchmarks;
+
+import com.gomentr.emailmanager.parsers.ContentParser;
+import com.gomentr.emailmanager.parsers.CssContentParser;
+import com.gomentr.emailmanager.parsers.GmailContentParser;
+import com.gomentr.emailmanager.parsers.HtmlContentParser;
+import com.gomentr.emailmanager.parsers.HtmlStripContentParser;
+import com.gomentr.emailmanager.parsers.ScriptContentParser;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks that HtmlStripContentParser gives the output of the regex parsers
+ * it replaces, applied in the order of the old chain: Html, Gmail, Css, Script
+ * Runs over the corpus and over random inputs built from the tags and
+ * attributes both handle, and exits with status 1 on any unexpected difference
+ * The only expected difference is a class or style attribute whose quotes lie
+ * on both sides of a script block, see HtmlStripContentParser
+ * The number of random inputs and their seed can be changed with the check.* system properties
+ */
+public class ParserEquivalenceCheck {
+
+    static final int RANDOM_INPUTS = Integer.getInteger("check.inputs", 500000);
+    static final long RANDOM_SEED = Long.getLong("check.seed", 42L);
+    static final int MAX_TOKENS = 16;
+    static final int MAX_REPORTED = 5;
+
+    static final String[] CORPUS = {
+            Corpus.GMAIL_HTML, Corpus.GMAIL_PLAIN, Corpus.OUTLOOK_HTML, Corpus.OUTLOOK_PLAIN,
+            Corpus.APPLE_HTML, Corpus.APPLE_PLAIN, Corpus.PLAIN_TEXT,
+            Corpus.HUGE_HTML, Corpus.LONG_QUOTE_CHAIN, Corpus.NESTED_BLOCKQUOTES, Corpus.HEADER_LIKE_LINE
+    };
+
+    /** the pieces the random inputs are built from, including escaped and unterminated tags */
+    static final String[] TOKENS = {
+            "<head>", "</head>", "&lt;head>", "</head&gt", "&lt;/head&gt",
+            "<style>", "</style>", "&lt;/style&gt",
+            "<script>", "</script>", "&lt;script", "&lt;/script&gt",
+            " class=\"", " style=\"", "\"", "<div class=\"gmail_extra\">",
+            "<p>", "x", " ", "\n", "a b"
+    };
+
+    static final Pattern SCRIPT_BLOCK = Pattern.compile("(?s)(<|&lt;)script.*(<|&lt;)/script(>|&gt)");
+    static final Pattern STYLE_BLOCK = Pattern.compile("(?s)(<|&lt;)style.*(<|&lt;)/style(>|&gt)");
+    static final Pattern CSS_ATTRIBUTE = Pattern.compile("( class=\"[^\"]*\")|( style=\"[^\"]*\")");
+
+    private static final ContentParser[] LEGACY_PARSERS = {
+            new HtmlContentParser(), new GmailContentParser(), new CssContentParser(), new ScriptContentParser()
+    };
+    private static final HtmlStripContentParser STRIP_PARSER = new HtmlStripContentParser();
+
+    public static void main(String[] args)
+            throws Exception {
+        boolean passed = checkCorpus() & checkRandomInputs();
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Every corpus entry must give exactly the same output
+     */
+    static boolean checkCorpus()
+            throws Exception {
+        boolean passed = true;
+        for (String name : CORPUS) {
+            String content = Corpus.load(name);
+            if (!parseLegacy(content).equals(STRIP_PARSER.parse(content))) {
+                System.out.println("corpus: " + name + " differs");
+                passed = false;
+            }
+        }
+        System.out.println(String.format("corpus: %d entries %s", CORPUS.length, passed ? "OK" : "FAILED"));
+        return passed;
+    }
+
+    /**
+     * Random inputs may only differ when an attribute straddles a script block
+     */
+    static boolean checkRandomInputs() {
+        Random random = new Random(RANDOM_SEED);
+        int expected = 0;
+        int unexpected = 0;
+        for (int n = 0; n < RANDOM_INPUTS; n++) {
+            StringBuilder input = new StringBuilder();
+            int tokens = random.nextInt(MAX_TOKENS);
+            for (int i = 0; i < tokens; i++)
+                input.append(TOKENS[random.nextInt(TOKENS.length)]);
+            String content = input.toString();
+
+            String legacyOutput = parseLegacy(content);
+            String stripOutput = STRIP_PARSER.parse(content);
+            if (legacyOutput.equals(stripOutput))
+                continue;
+            if (hasAttributeAcrossScript(content)) {
+                expected++;
+                continue;
+            }
+            if (++unexpected <= MAX_REPORTED)
+                System.out.println("random: input " + quote(content) + " gives " + quote(stripOutput)
+                        + " instead of " + quote(legacyOutput));
+        }
+        System.out.println(String.format("random: %d inputs, %d differ on an attribute across a script block, %d unexpected %s",
+                RANDOM_INPUTS, expected, unexpected, unexpected == 0 ? "OK" : "FAILED"));
+        return unexpected == 0;
+    }
+
+    static String parseLegacy(String content) {
+        String parsedContent = content;
+        for (ContentParser parser : LEGACY_PARSERS)
+            parsedContent = parser.parse(parsedContent);
+        return parsedContent;
+    }
+
+    /**
+     * True when, at the point where the old Css parser removed the attributes,
+     * one of them started on one side of the script block and ended on the other
+     * The old chain removed that attribute before the script block, the single
+     * scan removes the script block first
+     */
+    static boolean hasAttributeAcrossScript(String content) {
+        String parsedContent = new GmailContentParser().parse(new HtmlContentParser().parse(content));
+        parsedContent = STYLE_BLOCK.matcher(parsedContent).replaceAll("");
+
+        Matcher script = SCRIPT_BLOCK.matcher(parsedContent);
+        if (!script.find())
+            return false;
+        Matcher attribute = CSS_ATTRIBUTE.matcher(parsedContent);
+        while (attribute.find()) {
+            boolean overlaps = attribute.start() < script.end() && attribute.end() > script.start();
+            boolean inside = attribute.start() >= script.start() && attribute.end() <= script.end();
+            if (overlaps && !inside)
+                return true;
+        }
+        return false;
+    }
+
+    private static String quote(String content) {
+        return "\"" + content.replace("\n", "\\n") + "\"";
+    }
+
+}
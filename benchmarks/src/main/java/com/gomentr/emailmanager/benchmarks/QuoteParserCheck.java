@@ -0,0 +1,64 @@
+package com.gomentr.emailmanager.benchmarks;
+
+import com.gomentr.emailmanager.parsers.QuoteContentParser;
+
+/**
+ * Checks the exact output of QuoteContentParser on replies whose quote headers
+ * must be removed with their line breaks, and on replies that only look like
+ * quote headers and must be kept
+ * Exits with status 1 when any output differs from the expected one
+ */
+public class QuoteParserCheck {
+
+    /** pairs of input and expected output */
+    static final String[][] CASES = {
+            // Header labels written by the user are not a header block
+            { "Date: tomorrow\nTo: whom it may concern: thanks",
+                    "Date: tomorrow\nTo: whom it may concern: thanks" },
+            { "See you\nDate: tomorrow\nTo: everyone\n",
+                    "See you\nDate: tomorrow\nTo: everyone\n" },
+            // On ... wrote: wrapped on two lines
+            { "Thanks, see you then\n\nOn Mon, Jun 7, 2010 at 8:50 PM, Simon\nwrote:\n> earlier text\n",
+                    "Thanks, see you then\n\n> earlier text\n" },
+            { "Thanks\n\nOn Mon, Jun 7, 2010 at 8:50 PM, Simon\nwrote:",
+                    "Thanks\n" },
+            // On ... wrote: after the reply on the same line
+            { "Thanks! On Mon, Jun 7, 2010 at 8:50 PM, Simon wrote:\n> hi",
+                    "Thanks! \n> hi" },
+            // Outlook header block
+            { "Sounds good.\n\n-----Original Message-----\nFrom: Alice\nSent: Monday, June 7, 2010 8:50 PM\nTo: Bob\nSubject: Meeting\n\nCan we meet?\n",
+                    "Sounds good.\n\n\nCan we meet?\n" },
+            { "Sounds good.\r\n\r\nFrom: Alice\r\nSent: Monday\r\nTo: Bob\r\n\r\nCan we meet?",
+                    "Sounds good.\r\n\r\n\r\nCan we meet?" },
+            { "*From:* Alice\n*Sent:* Monday\nbody",
+                    "body" },
+            { "Ok\n------------\nSent: Monday\nTo: Bob\nhello",
+                    "Ok\nhello" },
+            // Header lines separated from the On ... wrote: header by a blank line
+            { "Ok\nOn Mon, 7 Jun 2010, Simon wrote:\n\nDate: Mon, 7 Jun 2010\nTo: Bob\nhello",
+                    "Ok\n\nhello" },
+            // A header block at the end takes the line break before it
+            { "Ok\n-----Original Message-----\nFrom: Alice\nTo: Bob",
+                    "Ok" }
+    };
+
+    public static void main(String[] args) {
+        QuoteContentParser parser = new QuoteContentParser();
+        int failed = 0;
+        for (String[] check : CASES) {
+            String output = parser.parse(check[0]);
+            if (!output.equals(check[1])) {
+                System.out.println("input " + quote(check[0]) + " gives " + quote(output)
+                        + " instead of " + quote(check[1]));
+                failed++;
+            }
+        }
+        System.out.println(String.format("quotes: %d cases, %d failed %s", CASES.length, failed, failed == 0 ? "OK" : "FAILED"));
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    private static String quote(String content) {
+        return "\"" + content.replace("\r", "\\r").replace("\n", "\\n") + "\"";
+    }
+
+}
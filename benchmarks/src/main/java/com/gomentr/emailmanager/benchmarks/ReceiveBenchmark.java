@@ -0,0 +1,95 @@
+package com.gomentr.emailmanager.benchmarks;
+
+import com.gomentr.emailmanager.helpers.EmailReceiver;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads, parses and moves a seeded mailbox with EmailReceiver.readEmails
+ * Each operation reads the whole inbox, the messages counter gives the
+ * rate in messages per second
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ReceiveBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Mailbox {
+
+        @Param({ "100" })
+        public int messageCount;
+
+        @Param({ "2048" })
+        public int meanBodyBytes;
+
+        @Param({ "0.5" })
+        public double htmlShare;
+
+        MailHarness harness;
+        EmailReceiver receiver;
+        long seed;
+
+        @Setup(Level.Trial)
+        public void start()
+                throws Exception {
+            harness = new MailHarness();
+            receiver = harness.createReceiver();
+        }
+
+        /**
+         * Every read empties the inbox, so it is seeded again before each one
+         */
+        @Setup(Level.Invocation)
+        public void seed()
+                throws Exception {
+            harness.purge();
+            harness.seedInbox(messageCount, meanBodyBytes, htmlShare, seed++);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            harness.close();
+        }
+
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class MessageCounters {
+
+        public long messages;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            messages = 0;
+        }
+
+    }
+
+    @Benchmark
+    public void readEmails(Mailbox mailbox, IoCounters counters, MessageCounters messageCounters)
+            throws Exception {
+        CountingProxy proxy = mailbox.harness.getImapProxy();
+        counters.mark(proxy);
+        messageCounters.messages += mailbox.receiver.readEmails(true).size();
+        counters.record(proxy);
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.gomentr.emailmanager.benchmarks;
+
+import com.gomentr.emailmanager.helpers.EmailSender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends notifications through EmailSender to the embedded SMTP server
+ * The score is in messages per second, the connections and round trips
+ * show how well the transport pool reuses its connections
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SendBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Server {
+
+        MailHarness harness;
+        EmailSender sender;
+        final AtomicLong nextId = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void start()
+                throws Exception {
+            harness = new MailHarness();
+            sender = harness.createSender();
+        }
+
+        @TearDown(Level.Iteration)
+        public void purge()
+                throws Exception {
+            harness.purge();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop()
+                throws Exception {
+            sender.close();
+            harness.close();
+        }
+
+    }
+
+    @Benchmark
+    public void sendEmail(Server server, IoCounters counters)
+            throws Exception {
+        CountingProxy proxy = server.harness.getSmtpProxy();
+        counters.mark(proxy);
+        long id = server.nextId.incrementAndGet();
+        server.sender.sendEmail(String.valueOf(id), MailHarness.RECIPIENT, "Notification " + id,
+                "You have a new notification, reply to this email to answer it.");
+        counters.record(proxy);
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.gomentr.emailmanager.benchmarks;
+
+import com.gomentr.emailmanager.helpers.EmailReceiver;
+
+import javax.mail.search.SearchTerm;
+import javax.mail.search.SubjectTerm;
+
+/**
+ * Checks that a read with the search triage moves the messages the same way
+ * as a read without it, through the embedded server
+ * The tagged messages must be processed and moved to the processed folder,
+ * the untagged ones must be moved to the error folder without being read
+ * GreenMail matches the whole address in a TO search where IMAP servers
+ * match a substring, so the check selects the tagged messages by subject
+ * Exits with status 1 when a folder ends with the wrong number of messages
+ */
+public class TriageCheck {
+
+    static final int TAGGED_COUNT = 20;
+    static final int UNTAGGED_COUNT = 10;
+
+    public static void main(String[] args)
+            throws Exception {
+        MailHarness harness = new MailHarness();
+        boolean passed;
+        try {
+            passed = checkTriage(harness, false) & checkTriage(harness, true);
+        }
+        finally {
+            harness.close();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    static boolean checkTriage(MailHarness harness, boolean searchTriage)
+            throws Exception {
+        harness.purge();
+        harness.seedInbox(TAGGED_COUNT, 1024, 0.5, 1);
+        harness.seedUntagged(UNTAGGED_COUNT);
+
+        EmailReceiver receiver = new EmailReceiver("Benchmark", MailHarness.ACCOUNT, MailHarness.PASSWORD,
+                MailHarness.ACCOUNT, "127.0.0.1", String.valueOf(harness.getImapProxy().getPort()),
+                MailHarness.INBOX_FOLDER, MailHarness.PROCESSED_FOLDER, MailHarness.ERROR_FOLDER) {
+            protected SearchTerm prepareEmailReaderSearchTerm() {
+                return new SubjectTerm(MailHarness.REPLY_SUBJECT);
+            }
+        };
+        receiver.setSearchTriage(searchTriage);
+        int read = receiver.readEmails(true).size();
+
+        int inbox = harness.getMessageCount(MailHarness.INBOX_FOLDER);
+        int processed = harness.getMessageCount(MailHarness.PROCESSED_FOLDER);
+        int errors = harness.getMessageCount(MailHarness.ERROR_FOLDER);
+        boolean passed = read == TAGGED_COUNT && inbox == 0 && processed == TAGGED_COUNT && errors == UNTAGGED_COUNT;
+        System.out.println(String.format("triage %s: %d read, %d left in the inbox, %d processed, %d errors %s",
+                searchTriage ? "on" : "off", read, inbox, processed, errors, passed ? "OK" : "FAILED"));
+        return passed;
+    }
+
+}
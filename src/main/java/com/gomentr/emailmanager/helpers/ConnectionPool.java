@@ -0,0 +1,211 @@
+package com.gomentr.emailmanager.helpers;
+
+import javax.mail.MessagingException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of connections kept open between uses
+ * The most recently returned connection is reused first, the ones idle for
+ * too long are closed by an evictor, and the ones idle for a while are
+ * validated before being reused
+ * The factory opens, validates and closes the connections of a protocol
+ */
+public class ConnectionPool<T extends ConnectionPool.PooledConnection> {
+
+    //region VARIABLES
+
+    /**
+     * Opens, validates and closes the connections of the pool
+     */
+    public interface ConnectionFactory<T> {
+        T openConnection() throws Exception;
+
+        boolean isHealthy(T connection);
+
+        void closeQuietly(T connection);
+    }
+
+    protected final ConnectionFactory<T> connectionFactory;
+
+    /**
+     * The name of the protocol, in the errors and the evictor thread name
+     */
+    protected final String protocol;
+    /**
+     * The maximum number of connections, idle and borrowed, opened at once
+     */
+    protected final int maxConnections;
+    /**
+     * Idle connections older than this are closed by the evictor
+     * Zero keeps idle connections until the server drops them
+     */
+    protected final long maxIdleMillis;
+    /**
+     * Idle connections older than this are validated before being reused
+     */
+    protected final long validationIntervalMillis;
+    /**
+     * How long a caller waits for a free connection when the pool is exhausted
+     */
+    protected final long borrowTimeoutMillis;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<T> idleConnections = new LinkedBlockingDeque<T>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    //endregion
+
+    //region POOL METHODS
+
+    /**
+     * Borrows a connection from the pool
+     * Reuses the most recently returned connection when it is still healthy,
+     * otherwise opens a new one
+     */
+    public T borrow()
+            throws Exception {
+        if (closed)
+            throw new MessagingException("The " + protocol + " connection pool is closed");
+        if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS))
+            throw new MessagingException("Timed out waiting for an " + protocol + " connection");
+
+        try {
+            T pooled;
+            while ((pooled = idleConnections.pollFirst()) != null) {
+                long idleMillis = System.currentTimeMillis() - pooled.lastUsedMillis;
+                boolean expired = maxIdleMillis > 0 && idleMillis > maxIdleMillis;
+                if (expired || (idleMillis > validationIntervalMillis && !connectionFactory.isHealthy(pooled))) {
+                    connectionFactory.closeQuietly(pooled);
+                    continue;
+                }
+                pooled.reused = true;
+                return pooled;
+            }
+
+            return connectionFactory.openConnection();
+        }
+        catch (Exception e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives a healthy connection back to the pool
+     */
+    public void giveBack(T pooled) {
+        pooled.lastUsedMillis = System.currentTimeMillis();
+        if (closed)
+            connectionFactory.closeQuietly(pooled);
+        else
+            idleConnections.offerFirst(pooled);
+        permits.release();
+    }
+
+    /**
+     * Closes a connection that failed and frees its slot in the pool
+     */
+    public void invalidate(T pooled) {
+        connectionFactory.closeQuietly(pooled);
+        permits.release();
+    }
+
+    /**
+     * Closes the idle connections and refuses further borrows
+     * Borrowed connections are closed when they are given back
+     */
+    public void close() {
+        closed = true;
+        if (evictor != null)
+            evictor.shutdownNow();
+        T pooled;
+        while ((pooled = idleConnections.pollFirst()) != null)
+            connectionFactory.closeQuietly(pooled);
+    }
+
+    public int getIdleCount() {
+        return idleConnections.size();
+    }
+
+    /**
+     * Closes the connections that stayed idle longer than the maximum idle time
+     * The oldest connections sit at the tail of the deque
+     */
+    protected void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        Iterator<T> iterator = idleConnections.descendingIterator();
+        while (iterator.hasNext()) {
+            T pooled = iterator.next();
+            if (now - pooled.lastUsedMillis <= maxIdleMillis)
+                break;
+            // Only close it if no borrower took it in the meantime
+            if (idleConnections.remove(pooled))
+                connectionFactory.closeQuietly(pooled);
+        }
+    }
+
+    //endregion
+
+    //region POOLED CONNECTION
+
+    /**
+     * A connection owned by the pool
+     */
+    public static class PooledConnection {
+
+        volatile long lastUsedMillis = System.currentTimeMillis();
+        boolean reused;
+
+        /**
+         * True when the connection was opened for an earlier use
+         * and may have been dropped by the server since
+         */
+        public boolean isReused() {
+            return this.reused;
+        }
+    }
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    public ConnectionPool(ConnectionFactory<T> connectionFactory, String protocol, int maxConnections,
+                          long maxIdleMillis, long validationIntervalMillis, long borrowTimeoutMillis) {
+        this.connectionFactory = connectionFactory;
+        this.protocol = protocol;
+        this.maxConnections = maxConnections;
+        this.maxIdleMillis = maxIdleMillis;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.permits = new Semaphore(maxConnections, true);
+
+        if (maxIdleMillis > 0) {
+            long period = Math.max(maxIdleMillis / 2, 1000);
+            final String threadName = protocol.toLowerCase() + "-connection-pool-evictor";
+            this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, threadName);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            this.evictor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    evictIdleConnections();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+        else
+            this.evictor = null;
+    }
+
+    //endregion
+
+}
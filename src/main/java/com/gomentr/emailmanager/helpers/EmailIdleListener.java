@@ -0,0 +1,250 @@
+package com.gomentr.emailmanager.helpers;
+
+import com.gomentr.emailmanager.models.ReceivedMessageModel;
+import com.gomentr.emailmanager.models.UidCheckpoint;
+import com.sun.mail.imap.IMAPFolder;
+
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Store;
+import javax.mail.UIDFolder;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the inbox folder open and pushes new messages to a callback
+ * Uses IMAP IDLE when the server supports it and falls back to polling
+ * with NOOP otherwise, reconnecting with backoff when the connection drops
+ */
+public class EmailIdleListener implements Runnable {
+
+    //region VARIABLES
+
+    protected final EmailReceiver emailReceiver;
+    protected final boolean moveEmailsAfterProcess;
+    protected final ReceivedMessageCallback callback;
+
+    private final ScheduledExecutorService refreshScheduler;
+    private volatile boolean running;
+    private volatile Thread thread;
+    private volatile Folder inboxFolder;
+    private volatile Exception lastError;
+
+    private UidCheckpoint checkpoint;
+    private boolean idleSupported = true;
+
+    //endregion
+
+    //region LISTENER METHODS
+
+    /**
+     * Runs the listener on a daemon thread
+     * A stopped listener cannot be started again
+     */
+    public synchronized void start() {
+        if (refreshScheduler.isShutdown())
+            throw new IllegalStateException("The listener was stopped");
+        if (running)
+            return;
+        running = true;
+        thread = new Thread(this, "email-idle-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the listener and closes its connection
+     */
+    public void stop() {
+        running = false;
+        refreshScheduler.shutdownNow();
+        Folder folder = inboxFolder;
+        if (folder != null) {
+            try {
+                // Closing the folder ends a pending IDLE
+                folder.close(false);
+            }
+            catch (Exception e) {
+                // The connection is being dropped anyway
+            }
+        }
+        Thread listenerThread = thread;
+        if (listenerThread != null)
+            listenerThread.interrupt();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * The last connection or processing error, kept for monitoring
+     */
+    public Exception getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Connects, listens until the connection drops and reconnects,
+     * until the listener is stopped
+     */
+    public void run() {
+        long backoff = 1000;
+        while (running) {
+            Store store = null;
+            ScheduledFuture<?> refresh = null;
+            try {
+                store = emailReceiver.connectEmailReaderStore();
+                Folder inbox = emailReceiver.prepareEmailReaderFolder(store, emailReceiver.inboxFolderName);
+                Folder processedEmailsFolder = emailReceiver.processedEmailsFolderName != null
+                        ? emailReceiver.prepareEmailReaderFolder(store, emailReceiver.processedEmailsFolderName) : null;
+                Folder errorEmailsFolder = emailReceiver.errorEmailsFolderName != null
+                        ? emailReceiver.prepareEmailReaderFolder(store, emailReceiver.errorEmailsFolderName) : null;
+                inboxFolder = inbox;
+                refresh = scheduleRefresh(inbox);
+                prepareCheckpoint(inbox);
+                backoff = 1000;
+
+                while (running) {
+                    dispatchNewMessages(inbox, processedEmailsFolder, errorEmailsFolder);
+                    waitForNewMessages(inbox);
+                }
+            }
+            catch (Exception e) {
+                if (!running)
+                    break;
+                lastError = e;
+                sleepQuietly(backoff);
+                backoff = Math.min(backoff * 2, emailReceiver.reconnectMaxBackoffMillis);
+            }
+            finally {
+                if (refresh != null)
+                    refresh.cancel(false);
+                inboxFolder = null;
+                closeQuietly(store);
+            }
+        }
+        running = false;
+    }
+
+    /**
+     * Blocks until the server announces a change in the folder
+     * IDLE returns on the first untagged response, and is also ended by
+     * the refresh task so that it is reissued before the server times it out
+     */
+    protected void waitForNewMessages(Folder inbox)
+            throws Exception {
+        if (idleSupported && inbox instanceof IMAPFolder) {
+            try {
+                ((IMAPFolder) inbox).idle(true);
+                return;
+            }
+            catch (MessagingException e) {
+                if (e.getMessage() == null || !e.getMessage().contains("IDLE not supported"))
+                    throw e;
+                idleSupported = false;
+            }
+        }
+
+        Thread.sleep(emailReceiver.idlePollIntervalMillis);
+        // On an open IMAP folder this sends a NOOP, which reports new messages
+        inbox.getMessageCount();
+    }
+
+    /**
+     * Processes the messages that arrived since the last dispatch
+     */
+    protected void dispatchNewMessages(Folder inbox, Folder processedEmailsFolder, Folder errorEmailsFolder)
+            throws Exception {
+        if (moveEmailsAfterProcess)
+            emailReceiver.moveEmailReaderUntaggedMessages(inbox, checkpoint, errorEmailsFolder);
+        Message[] messages = emailReceiver.fetchEmailReaderMessages(inbox, checkpoint);
+        if (messages.length == 0)
+            return;
+
+        checkpoint = emailReceiver.processEmailReaderMessages(messages, checkpoint, inbox, processedEmailsFolder, errorEmailsFolder,
+                moveEmailsAfterProcess, new ReceivedMessageCallback() {
+                    public void onMessage(ReceivedMessageModel message) {
+                        try {
+                            callback.onMessage(message);
+                        }
+                        catch (Exception e) {
+                            // A failing callback must not stop the listener nor replay the message forever
+                            lastError = e;
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Picks the UID to listen from
+     * Without a checkpoint store only the messages that arrive from now on
+     * are dispatched, and after a reconnection the listener catches up from
+     * the last dispatched UID
+     */
+    private void prepareCheckpoint(Folder inbox)
+            throws Exception {
+        UIDFolder uidFolder = (UIDFolder) inbox;
+        long uidValidity = uidFolder.getUIDValidity();
+
+        if (emailReceiver.checkpointStore != null)
+            checkpoint = emailReceiver.loadEmailReaderCheckpoint(inbox);
+        else if (checkpoint == null || checkpoint.getUidValidity() != uidValidity) {
+            int messageCount = inbox.getMessageCount();
+            long lastUid = messageCount > 0 ? uidFolder.getUID(inbox.getMessage(messageCount)) : 0;
+            checkpoint = new UidCheckpoint(uidValidity, lastUid);
+        }
+    }
+
+    private ScheduledFuture<?> scheduleRefresh(final Folder inbox) {
+        long period = emailReceiver.idleRefreshMillis;
+        return refreshScheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    // Using the folder from another thread ends the IDLE, which the listener then reissues
+                    inbox.getMessageCount();
+                }
+                catch (Exception e) {
+                    // The listener thread sees the broken connection and reconnects
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void closeQuietly(Store store) {
+        if (store == null)
+            return;
+        try {
+            store.close();
+        }
+        catch (Exception e) {
+            // The connection is being dropped anyway
+        }
+    }
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    public EmailIdleListener(EmailReceiver emailReceiver, boolean moveEmailsAfterProcess, ReceivedMessageCallback callback) {
+        this.emailReceiver = emailReceiver;
+        this.moveEmailsAfterProcess = moveEmailsAfterProcess;
+        this.callback = callback;
+        this.refreshScheduler = Executors.newSingleThreadScheduledExecutor(EmailSendQueue.daemonThreadFactory("email-idle-refresh"));
+    }
+
+    //endregion
+
+}
@@ -1,14 +1,50 @@
 package com.gomentr.emailmanager.helpers;
 
+import com.gomentr.emailmanager.metrics.EmailMetricsListener;
+import com.gomentr.emailmanager.metrics.NoOpMetricsListener;
+import com.gomentr.emailmanager.models.DetachedMessageModel;
 import com.gomentr.emailmanager.models.ReceivedMessageModel;
-import com.gomentr.emailmanager.parsers.*;
+import com.gomentr.emailmanager.models.UidCheckpoint;
+import com.gomentr.emailmanager.parsers.ParserPipeline;
+import com.gomentr.emailmanager.parsers.ReplyBoundaryScanner;
 
 import javax.mail.*;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeUtility;
+import javax.mail.internet.ParseException;
+import javax.mail.search.AndTerm;
+import javax.mail.search.ComparisonTerm;
+import javax.mail.search.FlagTerm;
+import javax.mail.search.NotTerm;
+import javax.mail.search.OrTerm;
+import javax.mail.search.ReceivedDateTerm;
+import javax.mail.search.RecipientStringTerm;
+import javax.mail.search.SearchTerm;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -17,6 +53,11 @@ import java.util.regex.Pattern;
  */
 public class EmailReceiver {
 
+    static final int DOWNLOAD_NOT_STARTED = 0;
+    static final int DOWNLOAD_RUNNING = 1;
+    static final int DOWNLOAD_STOPPING = 2;
+    static final int DOWNLOAD_FINISHED = 3;
+
     //region VARIABLES
 
     /**
@@ -53,6 +94,114 @@ public class EmailReceiver {
      */
     protected String errorEmailsFolderName;
 
+    /**
+     * When set, only the messages newer than the last processed UID
+     * are read from the inbox folder on each call
+     * The whole folder is read again only when its UIDVALIDITY changes
+     */
+    protected UidCheckpointStore checkpointStore;
+
+    /**
+     * When set, the server is first asked with a SEARCH for the messages
+     * sent to a tagged address of the account, and only those are fetched
+     * Untagged messages such as newsletters and bounces are never downloaded,
+     * they are still moved to the error folder when the messages are moved
+     * The search can be narrowed to the unseen messages or to the ones
+     * received since a date
+     */
+    protected boolean searchTriage = false;
+    protected boolean searchUnseenOnly = false;
+    protected Date searchReceivedSince;
+
+    /**
+     * Finds the notification ID in the recipient address
+     * The first group is the ID, or the whole match without its first
+     * and last characters when the pattern has no group
+     */
+    protected Pattern messageIdPattern = Pattern.compile("\\+([A-Za-z0-9-_]*)@");
+
+    /**
+     * Once start is called, the connected stores and their open folders are
+     * pooled and kept between reads, until close is called
+     * Each thread reading at the same time uses its own session
+     */
+    protected int sessionPoolSize = 2;
+    protected long sessionMaxIdleMillis = 10 * 60 * 1000;
+    protected long sessionValidationIntervalMillis = 1000;
+    protected long sessionBorrowTimeoutMillis = 30000;
+
+    /**
+     * Settings of the listener started by startListening
+     */
+    protected long idleRefreshMillis = 20 * 60 * 1000;
+    protected long idlePollIntervalMillis = 30000;
+    protected long reconnectMaxBackoffMillis = 5 * 60 * 1000;
+
+    /**
+     * The number of messages fetched and processed together
+     */
+    protected int readWindowSize = 100;
+
+    /**
+     * The number of threads parsing message contents while the next ones
+     * are downloaded, zero processes the messages one after the other
+     * The download stage has a single thread because a folder is a single
+     * server connection
+     * The pipeline does not go through processEmailReaderMessage, so it is
+     * off by default and subclasses overriding that method should leave it off
+     */
+    protected int parseParallelism = 0;
+    /**
+     * The number of downloaded messages that may wait for the later stages
+     */
+    protected int pipelineQueueCapacity = 32;
+
+    /**
+     * The parsers that clean the content of the messages
+     * The pipeline is shared by all the parsing threads
+     */
+    protected ParserPipeline parserPipeline = ParserPipeline.createDefault();
+
+    /**
+     * When set, the messages handed to the callback carry only their ID and
+     * envelope, and the content is downloaded and parsed on first access
+     * Callers that route or drop replies by ID and sender skip the download
+     */
+    protected boolean lazyContent = false;
+
+    /**
+     * When set, the contents of the messages read once are kept, and the
+     * messages read again, for instance because they stay in the inbox,
+     * are neither downloaded nor parsed
+     */
+    protected ParsedContentCache contentCache;
+
+    /**
+     * The text part of a message is truncated after this many bytes,
+     * zero reads it whole
+     */
+    protected int maxContentBytes = 0;
+
+    /**
+     * When set, the text part is read in blocks and the reading stops once
+     * the gmail_extra block holding the quoted history begins, so the bytes
+     * downloaded depend on the length of the reply instead of the length of the thread
+     * The content of the messages then ends shortly after the boundary,
+     * which the default parser pipeline removes as before
+     */
+    protected boolean streamingContent = false;
+
+    /**
+     * Receives the timings of each step and the message counts
+     */
+    protected EmailMetricsListener metricsListener = NoOpMetricsListener.INSTANCE;
+
+    private ReceivedMessageModel.ContentLoader contentLoader;
+    private ExecutorService parseExecutor;
+    private ExecutorService downloadExecutor;
+    private ImapSessionPool sessionPool;
+    private volatile Boolean overridesMoveMessage;
+
     //endregion
 
     //region EMAIL RECEIVING METHODS
@@ -60,36 +209,364 @@ public class EmailReceiver {
     public List<ReceivedMessageModel> readEmails(boolean moveEmailsAfterProcess)
             throws Exception {
 
-        Properties props = prepareEmailReaderProperties();
-        Session session = Session.getDefaultInstance(props, null);
+        final List<ReceivedMessageModel> processedEmails = new ArrayList<ReceivedMessageModel>();
+        readEmails(moveEmailsAfterProcess, new ReceivedMessageCallback() {
+            public void onMessage(ReceivedMessageModel message)
+                    throws Exception {
+                // The list outlives the folder, lazy contents are loaded while it is open
+                processedEmails.add(message.loadContent());
+            }
+        });
+        return processedEmails;
+    }
 
-        Store store = prepareEmailReaderStore(session);
-        store.connect(receivingHost, emailAddress, emailPassword);
+    /**
+     * Reads the emails and hands each processed one to the callback
+     * instead of collecting them, so that only one window of messages
+     * is held in memory at a time
+     * An exception thrown by the callback stops the reading
+     * With lazy content, the content can only be read inside the callback,
+     * messages kept for later must be loaded there with loadContent
+     */
+    public void readEmails(boolean moveEmailsAfterProcess, ReceivedMessageCallback callback)
+            throws Exception {
 
-        Folder inboxFolder = prepareEmailReaderFolder(store, inboxFolderName);
-        Folder processedEmailsFolder = processedEmailsFolderName != null ? prepareEmailReaderFolder(store, processedEmailsFolderName) : null;
-        Folder errorEmailsFolder = errorEmailsFolderName != null ? prepareEmailReaderFolder(store, errorEmailsFolderName) : null;
+        ImapSessionPool pool = getSessionPool();
+        if (pool != null) {
+            readPooledEmails(pool, moveEmailsAfterProcess, callback);
+            return;
+        }
 
-        List<ReceivedMessageModel> processedEmails = new ArrayList();
-        Message[] messages = inboxFolder.getMessages();
-        for(Message message : messages) {
-            ReceivedMessageModel processedEmail = processEmailReaderMessage(message);
+        Store store = connectEmailReaderStore();
+        try {
+            Folder inboxFolder = prepareEmailReaderFolder(store, inboxFolderName);
+            Folder processedEmailsFolder = processedEmailsFolderName != null ? prepareEmailReaderFolder(store, processedEmailsFolderName) : null;
+            Folder errorEmailsFolder = errorEmailsFolderName != null ? prepareEmailReaderFolder(store, errorEmailsFolderName) : null;
 
-            if (processedEmail != null)
-                processedEmails.add(processedEmail);
+            readEmailReaderFolders(inboxFolder, processedEmailsFolder, errorEmailsFolder, moveEmailsAfterProcess, callback);
+        }
+        finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Connects the pooled session used by readEmails and keeps it open
+     * until close is called, instead of connecting on every read
+     * The first session and its folders are opened right away, so that
+     * wrong settings fail here
+     */
+    public synchronized void start()
+            throws Exception {
+        if (sessionPool != null)
+            return;
+
+        ImapSessionPool pool = new ImapSessionPool(new ImapSessionPool.SessionFactory() {
+            public Store connectStore() throws Exception {
+                return connectEmailReaderStore();
+            }
+
+            public Folder openFolder(Store store, String folderName) throws Exception {
+                return prepareEmailReaderFolder(store, folderName);
+            }
+        }, sessionPoolSize, sessionMaxIdleMillis, sessionValidationIntervalMillis, sessionBorrowTimeoutMillis);
 
-            if (moveEmailsAfterProcess && processedEmail == null && errorEmailsFolder != null)
-                moveMessageToAnotherFolder(message, inboxFolder, errorEmailsFolder);
-            else if (moveEmailsAfterProcess && processedEmail != null && processedEmailsFolder != null)
-                moveMessageToAnotherFolder(message, inboxFolder, processedEmailsFolder);
+        ImapSessionPool.PooledSession pooled = pool.borrowSession();
+        try {
+            openPooledFolders(pooled);
+        }
+        catch (Exception e) {
+            pool.invalidateSession(pooled);
+            pool.close();
+            throw e;
         }
+        pool.returnSession(pooled);
+        sessionPool = pool;
+    }
 
-        store.close();
-        return processedEmails;
+    /**
+     * Closes the pooled sessions and stops the parsing threads
+     * Reads started afterwards connect for each call again, until start is called
+     */
+    public synchronized void close() {
+        if (sessionPool != null) {
+            sessionPool.close();
+            sessionPool = null;
+        }
+        if (parseExecutor != null) {
+            parseExecutor.shutdownNow();
+            parseExecutor = null;
+        }
+        if (downloadExecutor != null) {
+            downloadExecutor.shutdownNow();
+            downloadExecutor = null;
+        }
+    }
+
+    /**
+     * Reads the emails over a pooled session
+     * A reused session whose connection was dropped since its validation is
+     * replaced by a new one once, before any message is read
+     * A session whose read fails, in a stage or in the callback, is closed
+     * and the next read reconnects
+     */
+    protected void readPooledEmails(ImapSessionPool pool, boolean moveEmailsAfterProcess, ReceivedMessageCallback callback)
+            throws Exception {
+        ImapSessionPool.PooledSession pooled = pool.borrowSession();
+        Folder[] folders;
+        try {
+            folders = openPooledFolders(pooled);
+        }
+        catch (MessagingException e) {
+            pool.invalidateSession(pooled);
+            if (!pooled.isReused())
+                throw e;
+
+            pooled = pool.borrowSession();
+            try {
+                folders = openPooledFolders(pooled);
+            }
+            catch (Exception retryException) {
+                pool.invalidateSession(pooled);
+                throw retryException;
+            }
+        }
+        catch (Exception e) {
+            pool.invalidateSession(pooled);
+            throw e;
+        }
+
+        try {
+            readEmailReaderFolders(folders[0], folders[1], folders[2], moveEmailsAfterProcess, callback);
+        }
+        catch (Exception e) {
+            // A read that stopped partway through a window leaves the folders in an unknown state
+            pool.invalidateSession(pooled);
+            throw e;
+        }
+        pool.returnSession(pooled);
     }
 
+    /**
+     * Returns the inbox, processed and error folders of a pooled session,
+     * opening the ones that are not open yet
+     */
+    private Folder[] openPooledFolders(ImapSessionPool.PooledSession pooled)
+            throws Exception {
+        Folder inboxFolder = pooled.getFolder(inboxFolderName);
+        Folder processedEmailsFolder = processedEmailsFolderName != null ? pooled.getFolder(processedEmailsFolderName) : null;
+        Folder errorEmailsFolder = errorEmailsFolderName != null ? pooled.getFolder(errorEmailsFolderName) : null;
 
+        // A NOOP on the open inbox reports the messages that arrived since the last read
+        inboxFolder.getMessageCount();
+        return new Folder[] { inboxFolder, processedEmailsFolder, errorEmailsFolder };
+    }
 
+    /**
+     * Reads the emails of an open inbox folder
+     */
+    protected void readEmailReaderFolders(Folder inboxFolder, Folder processedEmailsFolder, Folder errorEmailsFolder,
+                                          boolean moveEmailsAfterProcess, ReceivedMessageCallback callback)
+            throws Exception {
+        UidCheckpoint checkpoint = loadEmailReaderCheckpoint(inboxFolder);
+        if (moveEmailsAfterProcess)
+            moveEmailReaderUntaggedMessages(inboxFolder, checkpoint, errorEmailsFolder);
+        long startTime = metricsListener.startTime();
+        Message[] messages = fetchEmailReaderMessages(inboxFolder, checkpoint);
+        metricsListener.recordTime(EmailMetricsListener.Stage.FETCH, startTime);
+        processEmailReaderMessages(messages, checkpoint, inboxFolder, processedEmailsFolder, errorEmailsFolder,
+                moveEmailsAfterProcess, callback);
+    }
+
+    protected synchronized ImapSessionPool getSessionPool() {
+        return sessionPool;
+    }
+
+    /**
+     * Starts listening to the inbox folder on a background thread
+     * Each new message is processed as soon as the server announces it
+     * and handed to the callback
+     */
+    public EmailIdleListener startListening(boolean moveEmailsAfterProcess, ReceivedMessageCallback callback) {
+        EmailIdleListener listener = new EmailIdleListener(this, moveEmailsAfterProcess, callback);
+        listener.start();
+        return listener;
+    }
+
+    /**
+     * Processes the fetched messages window by window
+     * Each window is prefetched, processed, handed to the callback and moved
+     * before the next one is loaded, and the checkpoint is advanced after
+     * each window so that a failure does not replay the finished ones
+     * The moves of a window are sent together once it is processed
+     * Returns the last checkpoint
+     */
+    protected UidCheckpoint processEmailReaderMessages(Message[] messages, UidCheckpoint checkpoint, Folder inboxFolder,
+                                                       Folder processedEmailsFolder, Folder errorEmailsFolder,
+                                                       boolean moveEmailsAfterProcess, ReceivedMessageCallback callback)
+            throws Exception {
+        int windowSize = Math.max(1, readWindowSize);
+        for (int start = 0; start < messages.length; start += windowSize) {
+            Message[] window = Arrays.copyOfRange(messages, start, Math.min(start + windowSize, messages.length));
+            long startTime = metricsListener.startTime();
+            prefetchEmailReaderMessages(inboxFolder, window);
+            metricsListener.recordTime(EmailMetricsListener.Stage.FETCH, startTime);
+            FolderMoveBatch moveBatch = prepareFolderMoveBatch(inboxFolder);
+
+            // Lazy messages are not downloaded here, so there is nothing to overlap
+            if (parseParallelism > 0 && !lazyContent)
+                pipelineEmailReaderWindow(window, moveBatch, processedEmailsFolder, errorEmailsFolder, moveEmailsAfterProcess, callback);
+            else {
+                for (Message message : window) {
+                    ReceivedMessageModel processedEmail = processEmailReaderMessage(message);
+
+                    if (processedEmail != null) {
+                        callback.onMessage(processedEmail);
+                        metricsListener.increment(EmailMetricsListener.Counter.MESSAGES_PROCESSED, 1);
+                        cacheEmailReaderMessage(message, processedEmail);
+                    }
+
+                    if (moveEmailsAfterProcess)
+                        moveProcessedMessage(message, processedEmail != null, moveBatch, processedEmailsFolder, errorEmailsFolder);
+                }
+            }
+
+            startTime = metricsListener.startTime();
+            moveBatch.flush();
+            metricsListener.recordTime(EmailMetricsListener.Stage.FOLDER_MOVE, startTime);
+            checkpoint = saveEmailReaderCheckpoint(inboxFolder, checkpoint, window);
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Processes a window as a pipeline of three stages
+     * A download thread reads the messages from the folder, a pool of
+     * workers parses their content, and the calling thread hands the results
+     * to the callback and collects the moves, in the order of the inbox
+     * The stages are joined by a bounded queue, so the download stops
+     * when the parsing falls behind
+     */
+    protected void pipelineEmailReaderWindow(final Message[] window, FolderMoveBatch moveBatch,
+                                             Folder processedEmailsFolder, Folder errorEmailsFolder,
+                                             boolean moveEmailsAfterProcess, ReceivedMessageCallback callback)
+            throws Exception {
+
+        final BlockingQueue<Future<ReceivedMessageModel>> parsedEmails =
+                new ArrayBlockingQueue<Future<ReceivedMessageModel>>(Math.max(1, pipelineQueueCapacity));
+        final ExecutorService parseExecutor = getParseExecutor();
+
+        // NOT_STARTED, then RUNNING, STOPPING and FINISHED, the consumer waits for a started download to finish
+        final AtomicInteger downloadState = new AtomicInteger(DOWNLOAD_NOT_STARTED);
+        final CountDownLatch downloadFinished = new CountDownLatch(1);
+        Future<?> download = getDownloadExecutor().submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                if (!downloadState.compareAndSet(DOWNLOAD_NOT_STARTED, DOWNLOAD_RUNNING))
+                    return null;
+                try {
+                    downloadWindow();
+                }
+                finally {
+                    downloadState.set(DOWNLOAD_FINISHED);
+                    downloadFinished.countDown();
+                }
+                return null;
+            }
+
+            private void downloadWindow() throws Exception {
+                for (Message message : window) {
+                    if (downloadState.get() != DOWNLOAD_RUNNING)
+                        return;
+                    CompletableFuture<ReceivedMessageModel> parsedEmail = new CompletableFuture<ReceivedMessageModel>();
+                    try {
+                        final ReceivedMessageModel downloadedEmail = downloadEmailReaderMessage(message);
+                        // Cached messages come already parsed
+                        if (downloadedEmail == null || downloadedEmail.getParsedContent() != null)
+                            parsedEmail.complete(downloadedEmail);
+                        else
+                            parsedEmail = CompletableFuture.supplyAsync(new Supplier<ReceivedMessageModel>() {
+                                public ReceivedMessageModel get() {
+                                    downloadedEmail.setParsedContent(parseEmailReaderMessageContent(downloadedEmail.getContent()));
+                                    return downloadedEmail;
+                                }
+                            }, parseExecutor);
+                    }
+                    catch (Exception e) {
+                        // The consumer rethrows it when it reaches this message
+                        parsedEmail.completeExceptionally(e);
+                        parsedEmails.put(parsedEmail);
+                        return;
+                    }
+                    parsedEmails.put(parsedEmail);
+                }
+            }
+        });
+
+        try {
+            for (Message message : window) {
+                ReceivedMessageModel processedEmail;
+                try {
+                    processedEmail = parsedEmails.take().get();
+                }
+                catch (ExecutionException e) {
+                    Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+                    if (cause instanceof Exception)
+                        throw (Exception) cause;
+                    throw e;
+                }
+
+                if (processedEmail != null) {
+                    callback.onMessage(processedEmail);
+                    metricsListener.increment(EmailMetricsListener.Counter.MESSAGES_PROCESSED, 1);
+                    cacheEmailReaderMessage(message, processedEmail);
+                }
+
+                if (moveEmailsAfterProcess)
+                    moveProcessedMessage(message, processedEmail != null, moveBatch, processedEmailsFolder, errorEmailsFolder);
+            }
+        }
+        finally {
+            // Stops the download when the callback or a stage failed, and waits for it,
+            // since a cancelled future does not wait for its thread: the folder must
+            // not receive commands once the store is closed or the session pooled again
+            if (!downloadState.compareAndSet(DOWNLOAD_NOT_STARTED, DOWNLOAD_FINISHED)) {
+                downloadState.compareAndSet(DOWNLOAD_RUNNING, DOWNLOAD_STOPPING);
+                download.cancel(true);
+                // Emptying the queue unblocks a download waiting for a free slot
+                // in case the interruption was swallowed
+                while (!downloadFinished.await(10, TimeUnit.MILLISECONDS))
+                    parsedEmails.clear();
+            }
+        }
+    }
+
+    private synchronized ExecutorService getParseExecutor() {
+        if (parseExecutor == null)
+            parseExecutor = Executors.newFixedThreadPool(Math.max(1, parseParallelism),
+                    EmailSendQueue.daemonThreadFactory("email-reader-parser"));
+        return parseExecutor;
+    }
+
+    private synchronized ExecutorService getDownloadExecutor() {
+        if (downloadExecutor == null)
+            downloadExecutor = Executors.newCachedThreadPool(EmailSendQueue.daemonThreadFactory("email-reader-download"));
+        return downloadExecutor;
+    }
+
+    /**
+     * Creates a session and connects a store for the email reader
+     */
+    protected Store connectEmailReaderStore()
+            throws Exception {
+        Properties props = prepareEmailReaderProperties();
+        Session session = Session.getDefaultInstance(props, null);
+
+        long startTime = metricsListener.startTime();
+        Store store = prepareEmailReaderStore(session);
+        store.connect(receivingHost, emailAddress, emailPassword);
+        metricsListener.recordTime(EmailMetricsListener.Stage.STORE_CONNECT, startTime);
+        return store;
+    }
 
     /**
      * Prepares the properties for the email reader
@@ -105,8 +582,10 @@ public class EmailReceiver {
         props.put("mail.imap.ssl.trust", "*");
         props.put("mail.imaps.ssl.checkserveridentity", "false");
         props.put("mail.imaps.ssl.trust", "*");
-        if (receivingPort != null)
+        if (receivingPort != null) {
             props.put("mail.imap.port", receivingPort);
+            props.put("mail.imaps.port", receivingPort);
+        }
         return props;
     }
 
@@ -124,14 +603,250 @@ public class EmailReceiver {
      */
     protected Folder prepareEmailReaderFolder(Store store, String folderName)
             throws Exception {
+        long startTime = metricsListener.startTime();
         Folder folder = store.getFolder(folderName);
         folder.open(Folder.READ_WRITE);
+        metricsListener.recordTime(EmailMetricsListener.Stage.FOLDER_OPEN, startTime);
         return folder;
     }
 
-    /*
-     * Moves a message to a folder
+    /**
+     * Fetches the messages to be processed from a folder
+     * With a checkpoint, only the messages with a UID above the last
+     * processed one are fetched
+     */
+    protected Message[] fetchEmailReaderMessages(Folder folder, UidCheckpoint checkpoint)
+            throws Exception {
+        SearchTerm searchTerm = searchTriage ? prepareEmailReaderSearchTerm() : null;
+        if (checkpoint == null || checkpoint.getLastUid() <= 0)
+            return searchTerm != null ? folder.search(searchTerm) : folder.getMessages();
+
+        Message[] fetchedMessages = fetchEmailReaderNewMessages(folder, checkpoint);
+
+        // A single SEARCH restricted to the new messages
+        if (searchTerm != null && fetchedMessages.length > 0)
+            return folder.search(searchTerm, fetchedMessages);
+        return fetchedMessages;
+    }
+
+    /**
+     * Moves the messages the search triage leaves out to the error folder,
+     * as reading them without the triage would, without downloading them
+     * Only the untagged messages within the unseen and received since
+     * filters are moved, and with a checkpoint only the ones above it
+     */
+    protected void moveEmailReaderUntaggedMessages(Folder folder, UidCheckpoint checkpoint, Folder errorEmailsFolder)
+            throws Exception {
+        if (!searchTriage || errorEmailsFolder == null)
+            return;
+
+        SearchTerm untaggedTerm = new NotTerm(prepareEmailReaderSearchTerm());
+        SearchTerm filterTerm = prepareEmailReaderSearchFilterTerm();
+        if (filterTerm != null)
+            untaggedTerm = new AndTerm(filterTerm, untaggedTerm);
+
+        Message[] untaggedMessages;
+        if (checkpoint == null || checkpoint.getLastUid() <= 0)
+            untaggedMessages = folder.search(untaggedTerm);
+        else {
+            Message[] newMessages = fetchEmailReaderNewMessages(folder, checkpoint);
+            untaggedMessages = newMessages.length > 0 ? folder.search(untaggedTerm, newMessages) : newMessages;
+        }
+        if (untaggedMessages.length == 0)
+            return;
+
+        long startTime = metricsListener.startTime();
+        FolderMoveBatch moveBatch = prepareFolderMoveBatch(folder);
+        for (Message message : untaggedMessages)
+            moveBatch.add(message, errorEmailsFolder);
+        moveBatch.flush();
+        metricsListener.recordTime(EmailMetricsListener.Stage.FOLDER_MOVE, startTime);
+        metricsListener.increment(EmailMetricsListener.Counter.MESSAGES_SKIPPED, untaggedMessages.length);
+    }
+
+    /**
+     * Returns the messages with a UID above the checkpoint
+     */
+    private Message[] fetchEmailReaderNewMessages(Folder folder, UidCheckpoint checkpoint)
+            throws Exception {
+        UIDFolder uidFolder = (UIDFolder) folder;
+        Message[] messages = uidFolder.getMessagesByUID(checkpoint.getLastUid() + 1, UIDFolder.LASTUID);
+
+        // "n:*" always matches the newest message, even when its UID is below n
+        List<Message> newMessages = new ArrayList<Message>(messages.length);
+        for (Message message : messages) {
+            if (message != null && uidFolder.getUID(message) > checkpoint.getLastUid())
+                newMessages.add(message);
+        }
+        return newMessages.toArray(new Message[newMessages.size()]);
+    }
+
+    /**
+     * Prepares the SEARCH that selects the messages worth fetching
+     * The servers match the recipient headers by substring, so the term
+     * asks for the local part of the account followed by the tag separator
+     * in the To or Cc header
+     */
+    protected SearchTerm prepareEmailReaderSearchTerm() {
+        String taggedRecipient = emailAddress.split("@")[0] + "+";
+        SearchTerm searchTerm = new OrTerm(
+                new RecipientStringTerm(Message.RecipientType.TO, taggedRecipient),
+                new RecipientStringTerm(Message.RecipientType.CC, taggedRecipient));
+
+        SearchTerm filterTerm = prepareEmailReaderSearchFilterTerm();
+        return filterTerm != null ? new AndTerm(searchTerm, filterTerm) : searchTerm;
+    }
+
+    /**
+     * Prepares the unseen and received since filters of the search,
+     * returns null when there are none
+     */
+    protected SearchTerm prepareEmailReaderSearchFilterTerm() {
+        SearchTerm filterTerm = null;
+        if (searchUnseenOnly)
+            filterTerm = new FlagTerm(new Flags(Flags.Flag.SEEN), false);
+        if (searchReceivedSince != null) {
+            SearchTerm receivedTerm = new ReceivedDateTerm(ComparisonTerm.GE, searchReceivedSince);
+            filterTerm = filterTerm != null ? new AndTerm(filterTerm, receivedTerm) : receivedTerm;
+        }
+        return filterTerm;
+    }
+
+    /**
+     * Loads the data read while processing the messages in bulk
+     * With IMAP this takes a single FETCH for the whole batch instead of
+     * one round trip per message and accessor
+     */
+    protected void prefetchEmailReaderMessages(Folder folder, Message[] messages)
+            throws Exception {
+        if (messages.length > 0)
+            folder.fetch(messages, prepareEmailReaderFetchProfile());
+    }
+
+    /**
+     * Prepares the items prefetched for each message
+     * The envelope covers the from, recipients, subject and sent date,
+     * the content info covers the structure needed to read the body
+     * getAllRecipients also reads the Newsgroups header
+     */
+    protected FetchProfile prepareEmailReaderFetchProfile() {
+        FetchProfile fetchProfile = new FetchProfile();
+        fetchProfile.add(FetchProfile.Item.ENVELOPE);
+        fetchProfile.add(FetchProfile.Item.FLAGS);
+        fetchProfile.add(FetchProfile.Item.CONTENT_INFO);
+        fetchProfile.add(UIDFolder.FetchProfileItem.UID);
+        fetchProfile.add("Newsgroups");
+        return fetchProfile;
+    }
+
+    /**
+     * Loads the checkpoint of a folder
+     * Returns null when no checkpoint store is set or the folder has no UIDs,
+     * and a checkpoint at UID 0 when the folder must be read from the start
+     */
+    protected UidCheckpoint loadEmailReaderCheckpoint(Folder folder)
+            throws Exception {
+        if (checkpointStore == null || !(folder instanceof UIDFolder))
+            return null;
+
+        long uidValidity = ((UIDFolder) folder).getUIDValidity();
+        UidCheckpoint checkpoint = checkpointStore.load(getCheckpointKey(folder));
+        if (checkpoint == null || checkpoint.getUidValidity() != uidValidity)
+            return new UidCheckpoint(uidValidity, 0);
+        return checkpoint;
+    }
+
+    /**
+     * Advances the checkpoint of a folder past the fetched messages
+     * and returns the new checkpoint
      */
+    protected UidCheckpoint saveEmailReaderCheckpoint(Folder folder, UidCheckpoint checkpoint, Message[] messages)
+            throws Exception {
+        if (checkpoint == null)
+            return null;
+
+        UIDFolder uidFolder = (UIDFolder) folder;
+        if (messages.length > 0) {
+            FetchProfile fetchProfile = new FetchProfile();
+            fetchProfile.add(UIDFolder.FetchProfileItem.UID);
+            folder.fetch(messages, fetchProfile);
+        }
+
+        long lastUid = checkpoint.getLastUid();
+        for (Message message : messages) {
+            long uid = uidFolder.getUID(message);
+            if (uid > lastUid)
+                lastUid = uid;
+        }
+        UidCheckpoint newCheckpoint = new UidCheckpoint(checkpoint.getUidValidity(), lastUid);
+        if (checkpointStore != null)
+            checkpointStore.save(getCheckpointKey(folder), newCheckpoint);
+        return newCheckpoint;
+    }
+
+    /**
+     * Identifies a folder of an account in the checkpoint store
+     */
+    protected String getCheckpointKey(Folder folder) {
+        return receivingHost + "/" + emailAddress + "/" + folder.getFullName();
+    }
+
+    /**
+     * Adds a message to the moves to the processed or the error folder
+     */
+    protected void moveProcessedMessage(Message message, boolean processed, FolderMoveBatch moveBatch,
+                                        Folder processedEmailsFolder, Folder errorEmailsFolder)
+            throws Exception {
+        if (!processed && errorEmailsFolder != null)
+            moveBatch.add(message, errorEmailsFolder);
+        else if (processed && processedEmailsFolder != null)
+            moveBatch.add(message, processedEmailsFolder);
+    }
+
+    /**
+     * Prepares the batch that collects the moves of a window,
+     * each of its destination folders is moved with moveMessagesToAnotherFolder
+     */
+    protected FolderMoveBatch prepareFolderMoveBatch(final Folder sourceFolder) {
+        return new FolderMoveBatch(sourceFolder) {
+            protected boolean moveMessages(Message[] messages, Folder destinationFolder)
+                    throws MessagingException {
+                return moveMessagesToAnotherFolder(messages, sourceFolder, destinationFolder);
+            }
+        };
+    }
+
+    /**
+     * Moves the messages of a window going to the same folder
+     * Returns true when the messages were only marked as deleted in the source
+     * folder, they are then expunged together once the window is moved
+     */
+    protected boolean moveMessagesToAnotherFolder(Message[] messages, Folder sourceFolder, Folder destinationFolder)
+            throws MessagingException {
+        if (!overridesMoveMessageToAnotherFolder())
+            return FolderMoveBatch.moveMessages(sourceFolder, messages, destinationFolder);
+
+        // A subclass still moving the messages one by one keeps doing so
+        try {
+            for (Message message : messages)
+                moveMessageToAnotherFolder(message, sourceFolder, destinationFolder);
+        }
+        catch (MessagingException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new MessagingException("Could not move the messages to " + destinationFolder.getFullName(), e);
+        }
+        return true;
+    }
+
+    /**
+     * Moves a single message to a folder
+     * The message is only marked as deleted in the source folder
+     * @deprecated the moves are batched by moveMessagesToAnotherFolder, which
+     * still calls this method for each message when a subclass overrides it
+     */
+    @Deprecated
     protected  void moveMessageToAnotherFolder(Message message, Folder sourceFolder, Folder destinationFolder)
             throws Exception {
         Message[] msgs = new Message[1];
@@ -140,20 +855,53 @@ public class EmailReceiver {
         message.setFlag(Flags.Flag.DELETED, true);
     }
 
+    /**
+     * True when a subclass overrides the per message moveMessageToAnotherFolder
+     */
+    private boolean overridesMoveMessageToAnotherFolder() {
+        if (overridesMoveMessage == null) {
+            boolean overrides = false;
+            for (Class<?> type = getClass(); type != EmailReceiver.class && !overrides; type = type.getSuperclass()) {
+                try {
+                    type.getDeclaredMethod("moveMessageToAnotherFolder", Message.class, Folder.class, Folder.class);
+                    overrides = true;
+                }
+                catch (NoSuchMethodException e) {
+                    // Not declared at this level
+                }
+            }
+            overridesMoveMessage = overrides;
+        }
+        return overridesMoveMessage;
+    }
+
     /**
      * Processes the messages that are fetched by the email reader
      */
     protected ReceivedMessageModel processEmailReaderMessage(Message message)
             throws Exception {
 
-        String id = processEmailReaderMessageID(message);
-        if (id == null)
-            return null;
+        ReceivedMessageModel processedEmail = downloadEmailReaderMessage(message);
+        if (processedEmail != null && !lazyContent && processedEmail.getParsedContent() == null)
+            processedEmail.setParsedContent(parseEmailReaderMessageContent(processedEmail.getContent()));
+        return processedEmail;
+    }
 
-        String content = processEmailReaderMessageContent(message);
-        if (content == null)
+    /**
+     * Reads everything the model needs from the server, leaving the parsing aside
+     * Only this step talks to the folder, so the parsing can run on other threads
+     * With lazy content only the prefetched envelope is read
+     */
+    protected ReceivedMessageModel downloadEmailReaderMessage(Message message)
+            throws Exception {
+
+        long startTime = metricsListener.startTime();
+        String id = processEmailReaderMessageID(message);
+        metricsListener.recordTime(EmailMetricsListener.Stage.ID_EXTRACTION, startTime);
+        if (id == null) {
+            metricsListener.increment(EmailMetricsListener.Counter.MESSAGES_SKIPPED, 1);
             return null;
-        String parsedContent = parseEmailReaderMessageContent(content);
+        }
 
         Address fromAddress = message.getFrom()[0];
         Address toAddress = message.getAllRecipients()[0];
@@ -161,58 +909,274 @@ public class EmailReceiver {
         String subject = message.getSubject();
         Date sentDate = message.getSentDate();
 
-        return new ReceivedMessageModel(id, fromAddress, toAddress, subject, content, parsedContent, sentDate, message);
+        DetachedMessageModel cachedEmail = getCachedEmailReaderMessage(message);
+        if (cachedEmail != null)
+            return new ReceivedMessageModel(id, fromAddress, toAddress, subject,
+                    cachedEmail.getContent(), cachedEmail.getParsedContent(), sentDate, message);
+
+        if (lazyContent) {
+            // A message without readable text is an error, as when the content is read right away
+            if (!hasEmailReaderMessageContent(message)) {
+                metricsListener.increment(EmailMetricsListener.Counter.MESSAGES_ERRORED, 1);
+                return null;
+            }
+            return new ReceivedMessageModel(id, fromAddress, toAddress, subject, sentDate, message, getContentLoader());
+        }
+
+        String content = downloadEmailReaderMessageContent(message);
+        if (content == null)
+            return null;
+
+        return new ReceivedMessageModel(id, fromAddress, toAddress, subject, content, null, sentDate, message);
+    }
+
+    /**
+     * Returns the cached content of a message, or null
+     */
+    protected DetachedMessageModel getCachedEmailReaderMessage(Message message)
+            throws Exception {
+        if (contentCache == null)
+            return null;
+        String key = getContentCacheKey(message);
+        DetachedMessageModel cachedEmail = key != null ? contentCache.get(key) : null;
+        if (cachedEmail != null)
+            metricsListener.increment(EmailMetricsListener.Counter.CONTENT_CACHE_HITS, 1);
+        return cachedEmail;
+    }
+
+    /**
+     * Adds a processed message to the content cache
+     * Lazy messages whose content was never read are left out
+     */
+    protected void cacheEmailReaderMessage(Message message, ReceivedMessageModel processedEmail)
+            throws Exception {
+        if (contentCache == null || !processedEmail.isContentLoaded())
+            return;
+        String key = getContentCacheKey(message);
+        if (key != null && !contentCache.contains(key))
+            contentCache.put(key, processedEmail.detach());
+    }
+
+    /**
+     * Identifies the content of a message in the cache
+     * The folder, its UIDVALIDITY and the UID name a message whose content
+     * never changes, all of them come with the prefetched envelope
+     * Without UIDs the Message-ID names the message and the size stands for
+     * the hash of its content, as hashing it would mean downloading it
+     * Returns null when the message cannot be identified
+     */
+    protected String getContentCacheKey(Message message)
+            throws Exception {
+        Folder folder = message.getFolder();
+        if (folder instanceof UIDFolder) {
+            UIDFolder uidFolder = (UIDFolder) folder;
+            long uid = uidFolder.getUID(message);
+            if (uid >= 0)
+                return receivingHost + "/" + emailAddress + "/" + folder.getFullName() + ":"
+                        + uidFolder.getUIDValidity() + ":" + uid;
+        }
+
+        String messageId = message instanceof MimeMessage ? ((MimeMessage) message).getMessageID() : null;
+        if (messageId == null)
+            return null;
+        return receivingHost + "/" + emailAddress + "/" + messageId + "/" + message.getSize();
+    }
+
+    /**
+     * Downloads the content of a message, timing and counting it
+     */
+    protected String downloadEmailReaderMessageContent(Message message)
+            throws Exception {
+        long startTime = metricsListener.startTime();
+        String content = processEmailReaderMessageContent(message);
+        metricsListener.recordTime(EmailMetricsListener.Stage.CONTENT_DOWNLOAD, startTime);
+        if (content == null) {
+            metricsListener.increment(EmailMetricsListener.Counter.MESSAGES_ERRORED, 1);
+            return null;
+        }
+        return content;
+    }
+
+    /**
+     * Returns the loader of the lazy models, which goes through the same
+     * download and parsing steps as the eager reading
+     */
+    protected synchronized ReceivedMessageModel.ContentLoader getContentLoader() {
+        if (contentLoader == null)
+            contentLoader = new ReceivedMessageModel.ContentLoader() {
+                public String loadContent(Message message) throws Exception {
+                    return downloadEmailReaderMessageContent(message);
+                }
+
+                public String parseContent(String content) {
+                    return parseEmailReaderMessageContent(content);
+                }
+            };
+        return contentLoader;
+    }
+
+    /**
+     * True when processEmailReaderMessageContent finds a content to read
+     * Only the structure is looked at, no content is downloaded
+     */
+    protected boolean hasEmailReaderMessageContent(Message message)
+            throws Exception {
+        return getTextPart(message) != null || !message.isMimeType("multipart/*");
     }
 
     /**
      * Processes the content of a message
+     * The text part is chosen from the structure of the message, which IMAP
+     * sends with the prefetched BODYSTRUCTURE, and only that part is read,
+     * so attachments and inline images are never downloaded
      */
     protected String processEmailReaderMessageContent(Message message)
             throws Exception {
-        String content = null;
-        Object msgContent = message.getContent();
-        if (msgContent instanceof Multipart) {
-            Multipart multipart = (Multipart) msgContent;
-            for (int j = 0; j < multipart.getCount(); j++)
-                content = getText(multipart.getBodyPart((j)));
-        }
-        else
-            content = message.getContent().toString();
+        Part textPart = getTextPart(message);
+        if (textPart != null)
+            return readEmailReaderTextPart(textPart);
+
+        if (message.isMimeType("multipart/*"))
+            return null;
+        String content = message.getContent().toString();
+        metricsListener.increment(EmailMetricsListener.Counter.BYTES_DOWNLOADED, content.length());
         return content;
     }
-    private String getText(Part part) throws
-            MessagingException, IOException {
-        if (part.isMimeType("text/*")) {
-            String s = (String)part.getContent();
-            boolean textIsHtml = part.isMimeType("text/html");
-            return s;
+
+    /**
+     * Reads a text part, decoding it with its charset
+     * Reading the stream fetches the section of the part only, and with a
+     * byte limit only its first bytes, in blocks of mail.imap.fetchsize
+     * With streaming content the reading stops at the end of the block in
+     * which the gmail_extra block begins
+     */
+    protected String readEmailReaderTextPart(Part part)
+            throws Exception {
+        LimitedInputStream input = new LimitedInputStream(part.getInputStream(),
+                maxContentBytes > 0 ? maxContentBytes : Long.MAX_VALUE);
+        StringBuilder content = new StringBuilder(Math.min(Math.max(part.getSize(), 0) + 16, 1 << 20));
+        ReplyBoundaryScanner boundaryScanner = streamingContent ? new ReplyBoundaryScanner() : null;
+        try {
+            Reader reader = new InputStreamReader(input, getTextPartCharset(part));
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) > 0) {
+                content.append(buffer, 0, read);
+                if (boundaryScanner != null && boundaryScanner.scan(content) >= 0)
+                    break;
+            }
+        }
+        finally {
+            input.close();
+        }
+        metricsListener.increment(EmailMetricsListener.Counter.BYTES_DOWNLOADED, input.getCount());
+
+        // A multi-byte character cut by the limit decodes as a replacement character
+        int length = content.length();
+        if (input.isTruncated() && length > 0 && content.charAt(length - 1) == '\uFFFD')
+            content.setLength(length - 1);
+        return content.toString();
+    }
+
+    /**
+     * Returns the charset of a text part, US-ASCII when it has none as
+     * RFC 2046 says, and ISO-8859-1 when Java does not support it
+     */
+    private Charset getTextPartCharset(Part part)
+            throws MessagingException {
+        String charset = null;
+        try {
+            charset = new ContentType(part.getContentType()).getParameter("charset");
+        }
+        catch (ParseException e) {
+            // Malformed content types are read as if they had no charset
+        }
+        try {
+            return Charset.forName(MimeUtility.javaCharset(charset != null ? charset : "us-ascii"));
+        }
+        catch (IllegalArgumentException e) {
+            return Charset.forName("ISO-8859-1");
+        }
+    }
+
+    /**
+     * Counts the bytes read from a stream and ends it after a limit
+     */
+    static class LimitedInputStream extends FilterInputStream {
+
+        private final long limit;
+        private long count;
+        private boolean truncated;
+
+        LimitedInputStream(InputStream input, long limit) {
+            super(input);
+            this.limit = limit;
         }
 
+        public int read()
+                throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) > 0 ? single[0] & 0xFF : -1;
+        }
+
+        public int read(byte[] buffer, int offset, int length)
+                throws IOException {
+            if (count >= limit) {
+                // One more byte tells a cut stream from one that ends at the limit
+                if (!truncated && length > 0)
+                    truncated = super.read() >= 0;
+                return -1;
+            }
+            int read = super.read(buffer, offset, (int) Math.min(length, limit - count));
+            if (read > 0)
+                count += read;
+            return read;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        boolean isTruncated() {
+            return truncated;
+        }
+
+    }
+
+    /**
+     * Chooses the text part of a message or a multipart, preferring html over plain text
+     * Only the structure is looked at, no content is downloaded
+     */
+    private Part getTextPart(Part part) throws
+            MessagingException, IOException {
+        if (part.isMimeType("text/*"))
+            return part;
+
         if (part.isMimeType("multipart/alternative")) {
             // prefer html text over plain text
             Multipart mp = (Multipart)part.getContent();
-            String text = null;
+            Part text = null;
             for (int i = 0; i < mp.getCount(); i++) {
                 Part bp = mp.getBodyPart(i);
                 if (bp.isMimeType("text/plain")) {
                     if (text == null)
-                        text = getText(bp);
+                        text = getTextPart(bp);
                     continue;
                 } else if (bp.isMimeType("text/html")) {
-                    String s = getText(bp);
-                    if (s != null)
-                        return s;
+                    Part p = getTextPart(bp);
+                    if (p != null)
+                        return p;
                 } else {
-                    return getText(bp);
+                    return getTextPart(bp);
                 }
             }
             return text;
         } else if (part.isMimeType("multipart/*")) {
             Multipart mp = (Multipart)part.getContent();
             for (int i = 0; i < mp.getCount(); i++) {
-                String s = getText(mp.getBodyPart(i));
-                if (s != null)
-                    return s;
+                Part p = getTextPart(mp.getBodyPart(i));
+                if (p != null)
+                    return p;
             }
         }
         return null;
@@ -223,48 +1187,211 @@ public class EmailReceiver {
      * Clean the message and get the reply body only
      */
     protected String parseEmailReaderMessageContent(String content) {
-        String parsedContent = content;
-
-        ArrayList<ContentParser> parsers = new ArrayList<ContentParser>() {{
-            add(new TextContentParser());
-            add(new HtmlContentParser());
-            add(new GmailContentParser());
-            add(new CssContentParser());
-            add(new ScriptContentParser());
-            add(new QuoteContentParser());
-        }};
-
-        for (ContentParser parser : parsers) {
-            parsedContent = parser.parse(parsedContent);
-        }
-
+        long startTime = metricsListener.startTime();
+        String parsedContent = parserPipeline.parse(content, metricsListener);
+        metricsListener.recordTime(EmailMetricsListener.Stage.CONTENT_PARSE, startTime);
         return parsedContent;
     }
 
     /**
      * Processes the ID passed by the email sender and collected by email reader
      * By default, it extracts it from the reply email
-     * The default pattern is /\+[A-Za-z0-9-_]*\@/: GUID
+     * The default pattern is /\+([A-Za-z0-9-_]*)\@/: GUID
      */
     protected String processEmailReaderMessageID(Message message)
             throws Exception {
 
         Address toAddress = message.getAllRecipients()[0];
 
-        String patternString = "\\+[A-Za-z0-9-_]*@";
-        Pattern pattern = Pattern.compile(patternString);
-        Matcher matcher = pattern.matcher(toAddress.toString());
+        Matcher matcher = messageIdPattern.matcher(toAddress.toString());
         boolean matches = matcher.find(0);
 
         if (!matches)
             return null;
 
+        if (matcher.groupCount() >= 1)
+            return matcher.group(1);
         String id = matcher.group(0).substring(1, matcher.group(0).length() - 1);
         return id;
     }
 
     //endregion
 
+    //region CONFIGURATION
+
+    /**
+     * Enables the incremental reading of the inbox folder
+     * FileUidCheckpointStore keeps the checkpoints in a local file
+     */
+    public void setCheckpointStore(UidCheckpointStore checkpointStore) {
+        this.checkpointStore = checkpointStore;
+    }
+
+    /**
+     * The number of messages fetched and processed together,
+     * a smaller window holds less memory but takes more FETCH commands
+     */
+    public void setReadWindowSize(int readWindowSize) {
+        this.readWindowSize = readWindowSize;
+    }
+
+    /**
+     * Makes the reader ask the server for the tagged messages only
+     * The search runs on the server, the untagged messages are not downloaded
+     * but still moved to the error folder when the messages are moved
+     */
+    public void setSearchTriage(boolean searchTriage) {
+        this.searchTriage = searchTriage;
+    }
+
+    /**
+     * Narrows the search to the messages not seen yet, requires the search triage
+     */
+    public void setSearchUnseenOnly(boolean searchUnseenOnly) {
+        this.searchUnseenOnly = searchUnseenOnly;
+    }
+
+    /**
+     * Narrows the search to the messages received since a date, requires the search triage
+     * IMAP compares the dates only, without the time of day
+     */
+    public void setSearchReceivedSince(Date searchReceivedSince) {
+        this.searchReceivedSince = searchReceivedSince;
+    }
+
+    /**
+     * Replaces the pattern that finds the notification ID in the recipient address
+     * The search triage still selects the messages sent to "localpart+",
+     * a pattern for another kind of tag needs prepareEmailReaderSearchTerm to be overridden
+     */
+    public void setMessageIdPattern(Pattern messageIdPattern) {
+        this.messageIdPattern = messageIdPattern;
+    }
+
+    /**
+     * Truncates the text of the messages after this many bytes, so that a huge
+     * text part is not downloaded whole, zero reads the text parts whole
+     */
+    public void setMaxContentBytes(int maxContentBytes) {
+        this.maxContentBytes = maxContentBytes;
+    }
+
+    /**
+     * Stops reading the text of the messages where the quoted history begins
+     * Meant for the default pipeline, which drops everything after that point
+     */
+    public void setStreamingContent(boolean streamingContent) {
+        this.streamingContent = streamingContent;
+    }
+
+    /**
+     * Replaces the parsers that clean the content of the messages
+     */
+    public void setParserPipeline(ParserPipeline parserPipeline) {
+        this.parserPipeline = parserPipeline;
+    }
+
+    public ParserPipeline getParserPipeline() {
+        return this.parserPipeline;
+    }
+
+    /**
+     * Defers the download and parsing of the content to its first access
+     * The content must then be read, or loaded with loadContent, inside the callback
+     */
+    public void setLazyContent(boolean lazyContent) {
+        this.lazyContent = lazyContent;
+    }
+
+    /**
+     * Keeps the contents of the messages read, so that reading them again
+     * skips the download and the parsing
+     * The cache holds parsed contents, it has to be cleared when the parser pipeline changes
+     */
+    public void setContentCache(ParsedContentCache contentCache) {
+        this.contentCache = contentCache;
+    }
+
+    public ParsedContentCache getContentCache() {
+        return this.contentCache;
+    }
+
+    /**
+     * Receives the timings and counts of the reading,
+     * HistogramMetricsListener keeps them in memory
+     */
+    public void setMetricsListener(EmailMetricsListener metricsListener) {
+        this.metricsListener = metricsListener != null ? metricsListener : NoOpMetricsListener.INSTANCE;
+    }
+
+    public EmailMetricsListener getMetricsListener() {
+        return this.metricsListener;
+    }
+
+    /**
+     * The number of threads parsing message contents, zero disables the pipeline
+     * The pipeline downloads with downloadEmailReaderMessage and parses with
+     * parseEmailReaderMessageContent on its own threads, instead of calling
+     * processEmailReaderMessage
+     * Has to be set before the first read
+     */
+    public void setParseParallelism(int parseParallelism) {
+        this.parseParallelism = parseParallelism;
+    }
+
+    /**
+     * The number of downloaded messages that may wait to be parsed and handed out
+     */
+    public void setPipelineQueueCapacity(int pipelineQueueCapacity) {
+        this.pipelineQueueCapacity = pipelineQueueCapacity;
+    }
+
+    /**
+     * The maximum number of sessions start keeps for the threads reading at the same time
+     * Has to be set before start
+     */
+    public void setSessionPoolSize(int sessionPoolSize) {
+        this.sessionPoolSize = sessionPoolSize;
+    }
+
+    /**
+     * Pooled sessions idle for longer than this are closed, zero keeps them open
+     */
+    public void setSessionMaxIdleMillis(long sessionMaxIdleMillis) {
+        this.sessionMaxIdleMillis = sessionMaxIdleMillis;
+    }
+
+    /**
+     * Pooled sessions idle for longer than this are checked with a NOOP before being reused
+     */
+    public void setSessionValidationIntervalMillis(long sessionValidationIntervalMillis) {
+        this.sessionValidationIntervalMillis = sessionValidationIntervalMillis;
+    }
+
+    /**
+     * How long a read waits for a free session when all of them are in use
+     */
+    public void setSessionBorrowTimeoutMillis(long sessionBorrowTimeoutMillis) {
+        this.sessionBorrowTimeoutMillis = sessionBorrowTimeoutMillis;
+    }
+
+    /**
+     * IDLE is restarted after this time so that the server does not drop
+     * the connection, RFC 2177 asks clients to do so at least every 29 minutes
+     */
+    public void setIdleRefreshMillis(long idleRefreshMillis) {
+        this.idleRefreshMillis = idleRefreshMillis;
+    }
+
+    /**
+     * How often the listener checks for new messages when the server has no IDLE
+     */
+    public void setIdlePollIntervalMillis(long idlePollIntervalMillis) {
+        this.idlePollIntervalMillis = idlePollIntervalMillis;
+    }
+
+    //endregion
+
     //region CONSTRUCTORS
 
     public EmailReceiver(String emailPersonalName, String emailAddress, String emailPassword, String replyToAddress,
@@ -0,0 +1,246 @@
+package com.gomentr.emailmanager.helpers;
+
+import com.gomentr.emailmanager.models.OutgoingNotification;
+import com.gomentr.emailmanager.models.SendResultModel;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded in-memory queue of outgoing emails drained by a pool of workers
+ * Callers get a future right away instead of waiting for the SMTP round trip
+ */
+public class EmailSendQueue {
+
+    /** how long a retry waits before trying again when the queue is full */
+    static final long RESUBMIT_DELAY_MILLIS = 100;
+
+    /**
+     * What happens to a new email when the queue is full
+     * BLOCK waits for a free slot, REJECT fails the returned future
+     * and CALLER_RUNS sends the email on the calling thread
+     */
+    public enum BackpressurePolicy {
+        BLOCK,
+        REJECT,
+        CALLER_RUNS
+    }
+
+    //region VARIABLES
+
+    protected final EmailSender emailSender;
+    protected final BackpressurePolicy backpressurePolicy;
+
+    /**
+     * Transient failures are retried until this many attempts were made,
+     * waiting twice as long before each new attempt
+     */
+    protected int maxAttempts = 4;
+    protected long initialBackoffMillis = 1000;
+    protected long maxBackoffMillis = 60000;
+
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService retryScheduler;
+    private final Set<SendTask> pendingRetries = ConcurrentHashMap.newKeySet();
+
+    //endregion
+
+    //region QUEUE METHODS
+
+    /**
+     * Queues an email and returns the future of its final result
+     * The future completes exceptionally only when the email could not be queued
+     */
+    public CompletableFuture<SendResultModel> submit(OutgoingNotification notification) {
+        SendTask task = new SendTask(notification);
+        try {
+            executor.execute(task);
+        }
+        catch (RejectedExecutionException e) {
+            task.future.completeExceptionally(e);
+        }
+        return task.future;
+    }
+
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stops accepting emails and waits for the queued ones to be sent
+     * Emails waiting for a retry are completed with their last failure
+     */
+    public void close(long timeoutMillis)
+            throws InterruptedException {
+        executor.shutdown();
+        retryScheduler.shutdownNow();
+        for (SendTask task : pendingRetries)
+            task.abandon();
+        executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void setRetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Returns a factory of virtual threads when the JVM has them (Java 21+),
+     * otherwise a factory of daemon platform threads
+     */
+    public static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        }
+        catch (Exception e) {
+            return daemonThreadFactory("email-send-queue-worker");
+        }
+    }
+
+    static ThreadFactory daemonThreadFactory(final String name) {
+        final AtomicInteger counter = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private RejectedExecutionHandler prepareRejectedExecutionHandler() {
+        switch (backpressurePolicy) {
+            case BLOCK:
+                return new RejectedExecutionHandler() {
+                    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor pool) {
+                        if (pool.isShutdown())
+                            throw new RejectedExecutionException("The email send queue is closed");
+                        try {
+                            pool.getQueue().put(runnable);
+                        }
+                        catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException("Interrupted while waiting for the email send queue", e);
+                        }
+                        // The queue may have been closed while waiting, and its workers may be gone
+                        if (pool.isShutdown() && pool.remove(runnable))
+                            throw new RejectedExecutionException("The email send queue is closed");
+                    }
+                };
+            case CALLER_RUNS:
+                return new RejectedExecutionHandler() {
+                    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor pool) {
+                        if (pool.isShutdown())
+                            throw new RejectedExecutionException("The email send queue is closed");
+                        runnable.run();
+                    }
+                };
+            default:
+                return new ThreadPoolExecutor.AbortPolicy();
+        }
+    }
+
+    //endregion
+
+    //region SEND TASK
+
+    /**
+     * One email and its attempts
+     */
+    private class SendTask implements Runnable {
+
+        private final OutgoingNotification notification;
+        private final CompletableFuture<SendResultModel> future = new CompletableFuture<SendResultModel>();
+        private volatile SendResultModel lastResult;
+        private int attempts;
+
+        private final Runnable resubmitTask = new Runnable() {
+            public void run() {
+                resubmit();
+            }
+        };
+
+        SendTask(OutgoingNotification notification) {
+            this.notification = notification;
+        }
+
+        public void run() {
+            pendingRetries.remove(this);
+            attempts++;
+            SendResultModel result = emailSender.deliverEmail(notification);
+            lastResult = result;
+
+            if (result.getStatus() != SendResultModel.Status.TRANSIENT_FAILURE || attempts >= maxAttempts) {
+                future.complete(result);
+                return;
+            }
+
+            long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempts - 1, 20));
+            try {
+                pendingRetries.add(this);
+                retryScheduler.schedule(resubmitTask, backoff, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e) {
+                abandon();
+            }
+        }
+
+        /**
+         * Puts the email back in the queue without blocking the retry thread,
+         * which serves every pending retry, whatever the backpressure policy
+         * When the queue is full the email tries again a little later
+         */
+        private void resubmit() {
+            if (executor.isShutdown()) {
+                abandon();
+                return;
+            }
+            if (executor.getQueue().offer(this)) {
+                if (executor.isShutdown() && executor.remove(this))
+                    abandon();
+                return;
+            }
+            try {
+                retryScheduler.schedule(resubmitTask, RESUBMIT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e) {
+                abandon();
+            }
+        }
+
+        void abandon() {
+            pendingRetries.remove(this);
+            future.complete(lastResult);
+        }
+    }
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    public EmailSendQueue(EmailSender emailSender, int workers, int capacity,
+                          BackpressurePolicy backpressurePolicy, ThreadFactory threadFactory) {
+        this.emailSender = emailSender;
+        this.backpressurePolicy = backpressurePolicy;
+
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity), threadFactory);
+        this.executor.setRejectedExecutionHandler(prepareRejectedExecutionHandler());
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("email-send-queue-retry"));
+    }
+
+    //endregion
+
+}
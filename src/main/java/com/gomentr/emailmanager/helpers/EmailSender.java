@@ -1,11 +1,31 @@
 package com.gomentr.emailmanager.helpers;
 
+import com.gomentr.emailmanager.metrics.EmailMetricsListener;
+import com.gomentr.emailmanager.metrics.NoOpMetricsListener;
+import com.gomentr.emailmanager.models.OutgoingNotification;
+import com.gomentr.emailmanager.models.SendResultModel;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+
 import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
 import javax.mail.Session;
 import javax.mail.Transport;
+import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Created by Omar Addam on 2015-09-04.
@@ -37,6 +57,61 @@ public class EmailSender {
     protected String senderHost;
     protected String senderPort;
 
+    /**
+     * Connected SMTP transports are pooled and reused between sends
+     * The pool is created on the first send, so the settings below
+     * have to be changed before that
+     */
+    protected int transportPoolSize = 4;
+    protected long transportMaxIdleMillis = 60000;
+    protected long transportValidationIntervalMillis = 1000;
+    protected long transportBorrowTimeoutMillis = 30000;
+
+    /**
+     * The number of messages sent at the same time by sendEmails
+     * Each concurrent send holds its own pooled connection
+     */
+    protected int sendConcurrency = 4;
+
+    /**
+     * sendEmailAsync hands the emails to this queue
+     * A default queue is created on first use when none was set
+     */
+    protected int sendQueueCapacity = 1000;
+    protected EmailSendQueue.BackpressurePolicy sendQueueBackpressurePolicy = EmailSendQueue.BackpressurePolicy.BLOCK;
+    protected boolean sendQueueVirtualThreads = false;
+
+    /**
+     * When set, sendEmail journals the emails in an outbox in this directory
+     * and returns, and a background drainer delivers them
+     * The emails survive a crash of the application and an SMTP outage
+     */
+    protected File outboxDirectory;
+    protected int outboxSegmentSize = 16 * 1024 * 1024;
+    protected boolean outboxForceOnAppend = true;
+
+    /**
+     * When set, the sends of the account are spaced by a token bucket
+     * whose rate adapts to the throttling replies of the server
+     * The rates are in messages per second, zero disables the limit
+     */
+    protected double sendRateInitial = 0;
+    protected double sendRateMin = 0.1;
+    protected double sendRateMax = 100;
+
+    /**
+     * Receives the timings of the connections and sends and the send counts
+     */
+    protected EmailMetricsListener metricsListener = NoOpMetricsListener.INSTANCE;
+
+    private Session emailSenderSession;
+    private SmtpTransportPool transportPool;
+    private EmailSendQueue sendQueue;
+    private OutboxSpool outboxSpool;
+    private SendRateLimiter rateLimiter;
+    private boolean closing;
+    private boolean closed;
+
     //endregion
 
     //region EMAIL SENDING METHODS
@@ -49,16 +124,363 @@ public class EmailSender {
     public void sendEmail(String id, String to, String subject, String body)
             throws Exception {
 
-        String replyTo = createRecipientWithId(id);
-        Properties props = prepareEmailSenderProperties();
+        if (outboxDirectory != null) {
+            getOutboxSpool().append(new OutgoingNotification(id, to, subject, body));
+            return;
+        }
+        sendEmailNow(id, to, subject, body);
+    }
+
+    /**
+     * Sends an email over SMTP right away, bypassing the outbox
+     */
+    protected void sendEmailNow(String id, String to, String subject, String body)
+            throws Exception {
 
-        Session session = Session.getDefaultInstance(props, null);
+        String replyTo = createRecipientWithId(id);
+        Session session = getEmailSenderSession();
         MimeMessage message = prepareEmailSenderMessage(session, to, replyTo, subject, body);
 
-        Transport transport = prepareEmailSenderTransport(session);
-        transport.connect(senderHost, emailAddress, emailPassword);
-        transport.sendMessage(message, message.getAllRecipients());
-        transport.close();
+        sendEmailSenderMessage(message);
+    }
+
+    /**
+     * Queues an email and returns without waiting for the SMTP round trip
+     * Transient failures are retried with backoff by the queue, the future
+     * completes with the final result of the send
+     */
+    public CompletableFuture<SendResultModel> sendEmailAsync(String id, String to, String subject, String body) {
+        return getSendQueue().submit(new OutgoingNotification(id, to, subject, body));
+    }
+
+    /**
+     * Sends many emails at once
+     * The messages are prepared and delivered by several workers, each one
+     * reusing a pooled connection for the messages it sends
+     * A failed message does not stop the others, the results are returned
+     * in the order of the notifications
+     */
+    public List<SendResultModel> sendEmails(Collection<OutgoingNotification> notifications)
+            throws Exception {
+
+        List<SendResultModel> results = new ArrayList<SendResultModel>(notifications.size());
+        if (notifications.isEmpty())
+            return results;
+
+        int workers = Math.max(1, Math.min(sendConcurrency, notifications.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "email-sender-worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            List<Future<SendResultModel>> futures = new ArrayList<Future<SendResultModel>>(notifications.size());
+            for (final OutgoingNotification notification : notifications) {
+                futures.add(executor.submit(new Callable<SendResultModel>() {
+                    public SendResultModel call() {
+                        return deliverEmail(notification);
+                    }
+                }));
+            }
+
+            for (Future<SendResultModel> future : futures)
+                results.add(future.get());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        return results;
+    }
+
+    /**
+     * Opens the outbox right away, so that the emails a previous run left
+     * in it are delivered without waiting for the first send
+     */
+    public void openOutbox()
+            throws Exception {
+        getOutboxSpool();
+    }
+
+    /**
+     * Waits for the queued emails to be sent and closes the pooled SMTP connections
+     * The emails left in the outbox are sent when it is opened again
+     * The lock is only held to detach the queue and the outbox: their workers
+     * need it to send, so waiting for them while holding it would stall them
+     * The queued emails can still open the connection pool while they drain,
+     * once they are done the sender does not send anymore
+     */
+    public void close()
+            throws InterruptedException {
+        OutboxSpool closingSpool;
+        EmailSendQueue closingQueue;
+        synchronized (this) {
+            closing = true;
+            closingSpool = outboxSpool;
+            outboxSpool = null;
+            closingQueue = sendQueue;
+            sendQueue = null;
+        }
+
+        if (closingSpool != null)
+            closingSpool.close(transportBorrowTimeoutMillis);
+        if (closingQueue != null)
+            closingQueue.close(transportBorrowTimeoutMillis);
+
+        SmtpTransportPool closingPool;
+        synchronized (this) {
+            closed = true;
+            closingPool = transportPool;
+            transportPool = null;
+            rateLimiter = null;
+        }
+        if (closingPool != null)
+            closingPool.close();
+    }
+
+    /**
+     * Sends one notification and reports the outcome instead of throwing
+     */
+    protected SendResultModel deliverEmail(OutgoingNotification notification) {
+        try {
+            sendEmailNow(notification.getId(), notification.getTo(), notification.getSubject(), notification.getBody());
+            return new SendResultModel(notification, SendResultModel.Status.SENT, null);
+        }
+        catch (Exception e) {
+            return new SendResultModel(notification, classifySendFailure(e), e);
+        }
+    }
+
+    /**
+     * Decides whether a failed send is worth retrying
+     * 4xx SMTP replies and connection failures are transient,
+     * 5xx SMTP replies and malformed addresses are permanent
+     */
+    protected SendResultModel.Status classifySendFailure(Exception e) {
+        int returnCode = getSmtpReturnCode(e);
+        if (returnCode >= 400 && returnCode < 500)
+            return SendResultModel.Status.TRANSIENT_FAILURE;
+        if (returnCode >= 500)
+            return SendResultModel.Status.PERMANENT_FAILURE;
+
+        if (e instanceof AddressException)
+            return SendResultModel.Status.PERMANENT_FAILURE;
+        if (e instanceof MessagingException)
+            return SendResultModel.Status.TRANSIENT_FAILURE;
+        return SendResultModel.Status.PERMANENT_FAILURE;
+    }
+
+    /**
+     * Finds the SMTP reply code carried by an exception or the exceptions chained to it
+     * Returns -1 when the server did not reply with an error code
+     */
+    protected int getSmtpReturnCode(Exception e) {
+        Exception current = e;
+        while (current != null) {
+            if (current instanceof SMTPSendFailedException)
+                return ((SMTPSendFailedException) current).getReturnCode();
+            if (current instanceof SMTPAddressFailedException)
+                return ((SMTPAddressFailedException) current).getReturnCode();
+            current = current instanceof MessagingException ? ((MessagingException) current).getNextException() : null;
+        }
+        return -1;
+    }
+
+    /**
+     * Decides whether a failed send means the account is sending too fast
+     * 4xx replies ask to try again later, and some servers report exceeded
+     * sending quotas with 5xx replies and the 5.4.5 or 4.7.0 enhanced codes
+     */
+    protected boolean isThrottleFailure(Exception e) {
+        int returnCode = getSmtpReturnCode(e);
+        if (returnCode >= 400 && returnCode < 500)
+            return true;
+        if (returnCode >= 500) {
+            String reply = e.getMessage() != null ? e.getMessage().toLowerCase() : "";
+            return reply.contains("5.4.5") || reply.contains("4.7.0")
+                    || reply.contains("rate limit") || reply.contains("too many") || reply.contains("quota");
+        }
+        return false;
+    }
+
+    /**
+     * Sends a prepared message over a pooled connection
+     * A reused connection that was dropped by the server is replaced
+     * by a new one and the message is sent again once
+     * The message takes one token of the rate limit and counts once,
+     * whether it was sent again or not
+     */
+    protected void sendEmailSenderMessage(MimeMessage message)
+            throws Exception {
+        SendRateLimiter limiter = getRateLimiter();
+        if (limiter != null)
+            acquireSendRate(limiter);
+
+        SmtpTransportPool pool = getTransportPool();
+        SmtpTransportPool.PooledTransport pooled = pool.borrowTransport();
+        boolean usable = false;
+        try {
+            try {
+                sendEmailSenderTransportMessage(pooled.getTransport(), message);
+            }
+            catch (SendFailedException e) {
+                // The server rejected the message, the connection itself is still usable
+                usable = true;
+                throw e;
+            }
+            catch (MessagingException e) {
+                if (!pooled.isReused())
+                    throw e;
+
+                pool.invalidateTransport(pooled);
+                pooled = null;
+                pooled = pool.borrowTransport();
+                try {
+                    sendEmailSenderTransportMessage(pooled.getTransport(), message);
+                }
+                catch (SendFailedException retryException) {
+                    usable = true;
+                    throw retryException;
+                }
+            }
+            usable = true;
+        }
+        catch (MessagingException e) {
+            metricsListener.increment(EmailMetricsListener.Counter.SEND_FAILURES, 1);
+            throw e;
+        }
+        finally {
+            // Every exit gives the connection back, runtime exceptions included
+            if (pooled != null) {
+                if (usable)
+                    pool.returnTransport(pooled);
+                else
+                    pool.invalidateTransport(pooled);
+            }
+        }
+
+        if (limiter != null)
+            limiter.onSuccess();
+        metricsListener.increment(EmailMetricsListener.Counter.MESSAGES_SENT, 1);
+    }
+
+    /**
+     * Sends a message over a connected transport, timing it
+     * A failure that means the account sends too fast slows the rate limit down
+     */
+    protected void sendEmailSenderTransportMessage(Transport transport, MimeMessage message)
+            throws MessagingException {
+        long startTime = metricsListener.startTime();
+        try {
+            transport.sendMessage(message, message.getAllRecipients());
+        }
+        catch (MessagingException e) {
+            SendRateLimiter limiter = getRateLimiter();
+            if (limiter != null && isThrottleFailure(e)) {
+                limiter.onThrottle();
+                metricsListener.increment(EmailMetricsListener.Counter.SEND_THROTTLED, 1);
+            }
+            throw e;
+        }
+        finally {
+            metricsListener.recordTime(EmailMetricsListener.Stage.TRANSPORT_SEND, startTime);
+        }
+    }
+
+    /**
+     * Waits for the send rate limit of the account
+     */
+    private void acquireSendRate(SendRateLimiter limiter)
+            throws MessagingException {
+        long startTime = metricsListener.startTime();
+        try {
+            limiter.acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for the send rate limit", e);
+        }
+        finally {
+            metricsListener.recordTime(EmailMetricsListener.Stage.RATE_LIMIT_WAIT, startTime);
+        }
+    }
+
+    /**
+     * Returns the session shared by all the sends of this sender
+     */
+    protected synchronized Session getEmailSenderSession() {
+        if (emailSenderSession == null)
+            emailSenderSession = Session.getDefaultInstance(prepareEmailSenderProperties(), null);
+        return emailSenderSession;
+    }
+
+    /**
+     * Returns the queue used by sendEmailAsync, creating it on first use
+     * Virtual threads are cheap, so each queued email can wait on its own
+     * thread for a pooled connection
+     */
+    protected synchronized EmailSendQueue getSendQueue() {
+        if (sendQueue == null) {
+            checkNotClosed(closing);
+            if (sendQueueVirtualThreads)
+                sendQueue = new EmailSendQueue(this, Math.max(transportPoolSize, sendQueueCapacity / 4), sendQueueCapacity,
+                        sendQueueBackpressurePolicy, EmailSendQueue.virtualThreadFactory());
+            else
+                sendQueue = new EmailSendQueue(this, transportPoolSize, sendQueueCapacity,
+                        sendQueueBackpressurePolicy, EmailSendQueue.daemonThreadFactory("email-send-queue-worker"));
+        }
+        return sendQueue;
+    }
+
+    /**
+     * Returns the outbox, opening it on first use
+     * Opening it recovers the emails a previous run did not deliver
+     */
+    protected synchronized OutboxSpool getOutboxSpool()
+            throws Exception {
+        if (outboxSpool == null) {
+            checkNotClosed(closing);
+            outboxSpool = new OutboxSpool(this, outboxDirectory, outboxSegmentSize, outboxForceOnAppend);
+        }
+        return outboxSpool;
+    }
+
+    /**
+     * Returns the rate limiter of the account, or null when the sends are not limited
+     * The limiter belongs to this sender, which should be the only one of its account
+     */
+    public synchronized SendRateLimiter getRateLimiter() {
+        if (rateLimiter == null && sendRateInitial > 0)
+            rateLimiter = new SendRateLimiter(sendRateInitial, sendRateMin, sendRateMax);
+        return rateLimiter;
+    }
+
+    /**
+     * Returns the pool of connected transports, creating it on first use
+     */
+    protected synchronized SmtpTransportPool getTransportPool() {
+        if (transportPool == null) {
+            checkNotClosed(closed);
+            final Session session = getEmailSenderSession();
+            transportPool = new SmtpTransportPool(new SmtpTransportPool.TransportFactory() {
+                public Transport openTransport() throws Exception {
+                    long startTime = metricsListener.startTime();
+                    Transport transport = prepareEmailSenderTransport(session);
+                    transport.connect(senderHost, emailAddress, emailPassword);
+                    metricsListener.recordTime(EmailMetricsListener.Stage.TRANSPORT_CONNECT, startTime);
+                    return transport;
+                }
+            }, transportPoolSize, transportMaxIdleMillis, transportValidationIntervalMillis, transportBorrowTimeoutMillis);
+        }
+        return transportPool;
+    }
+
+    private static void checkNotClosed(boolean closed) {
+        if (closed)
+            throw new IllegalStateException("The email sender is closed");
     }
 
 
@@ -129,6 +551,128 @@ public class EmailSender {
 
     //endregion
 
+    //region CONFIGURATION
+
+    /**
+     * The maximum number of SMTP connections opened at once
+     */
+    public void setTransportPoolSize(int transportPoolSize) {
+        this.transportPoolSize = transportPoolSize;
+    }
+
+    /**
+     * Idle connections are closed after this time, zero keeps them open
+     */
+    public void setTransportMaxIdleMillis(long transportMaxIdleMillis) {
+        this.transportMaxIdleMillis = transportMaxIdleMillis;
+    }
+
+    /**
+     * Connections idle for longer than this are checked with a NOOP before being reused
+     */
+    public void setTransportValidationIntervalMillis(long transportValidationIntervalMillis) {
+        this.transportValidationIntervalMillis = transportValidationIntervalMillis;
+    }
+
+    /**
+     * How long a send waits for a free connection when all of them are in use
+     */
+    public void setTransportBorrowTimeoutMillis(long transportBorrowTimeoutMillis) {
+        this.transportBorrowTimeoutMillis = transportBorrowTimeoutMillis;
+    }
+
+    /**
+     * The number of messages sent at the same time by sendEmails
+     * Values above the transport pool size make the extra workers wait for a connection
+     */
+    public void setSendConcurrency(int sendConcurrency) {
+        this.sendConcurrency = sendConcurrency;
+    }
+
+    /**
+     * The number of emails sendEmailAsync keeps waiting before applying the backpressure policy
+     */
+    public void setSendQueueCapacity(int sendQueueCapacity) {
+        this.sendQueueCapacity = sendQueueCapacity;
+    }
+
+    public void setSendQueueBackpressurePolicy(EmailSendQueue.BackpressurePolicy sendQueueBackpressurePolicy) {
+        this.sendQueueBackpressurePolicy = sendQueueBackpressurePolicy;
+    }
+
+    /**
+     * Runs the sendEmailAsync workers on virtual threads when the JVM supports them
+     */
+    public void setSendQueueVirtualThreads(boolean sendQueueVirtualThreads) {
+        this.sendQueueVirtualThreads = sendQueueVirtualThreads;
+    }
+
+    /**
+     * Replaces the default queue used by sendEmailAsync
+     * The current queue is closed first, so the emails already in it are still sent
+     */
+    public void setSendQueue(EmailSendQueue sendQueue)
+            throws InterruptedException {
+        EmailSendQueue replacedQueue;
+        synchronized (this) {
+            replacedQueue = this.sendQueue;
+            this.sendQueue = sendQueue;
+        }
+        // Closed without the lock, which its workers need to send
+        if (replacedQueue != null && replacedQueue != sendQueue)
+            replacedQueue.close(transportBorrowTimeoutMillis);
+    }
+
+    /**
+     * Makes sendEmail journal the emails in an outbox in the directory and return
+     * Must be set before the first send
+     */
+    public void setOutboxDirectory(File outboxDirectory) {
+        this.outboxDirectory = outboxDirectory;
+    }
+
+    /**
+     * The size of the outbox segment files, a segment is deleted once
+     * all its emails are sent
+     */
+    public void setOutboxSegmentSize(int outboxSegmentSize) {
+        this.outboxSegmentSize = outboxSegmentSize;
+    }
+
+    /**
+     * Forces each journaled email to the disk before sendEmail returns, so that it
+     * survives a power loss, without it only a crash of the application is covered
+     */
+    public void setOutboxForceOnAppend(boolean outboxForceOnAppend) {
+        this.outboxForceOnAppend = outboxForceOnAppend;
+    }
+
+    /**
+     * Limits the sends of the account to a rate, in messages per second, that starts
+     * at the initial rate and adapts between the bounds to the throttling of the server
+     * Setting it again starts over from the new initial rate
+     */
+    public synchronized void setSendRateLimit(double sendRateInitial, double sendRateMin, double sendRateMax) {
+        this.sendRateInitial = sendRateInitial;
+        this.sendRateMin = sendRateMin;
+        this.sendRateMax = sendRateMax;
+        this.rateLimiter = null;
+    }
+
+    /**
+     * Receives the timings and counts of the sending,
+     * HistogramMetricsListener keeps them in memory
+     */
+    public void setMetricsListener(EmailMetricsListener metricsListener) {
+        this.metricsListener = metricsListener != null ? metricsListener : NoOpMetricsListener.INSTANCE;
+    }
+
+    public EmailMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    //endregion
+
     //region CONSTRUCTORS
 
     public EmailSender(String emailPersonalName, String emailAddress, String emailPassword, String replyToAddress,
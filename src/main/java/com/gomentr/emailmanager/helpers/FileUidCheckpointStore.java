@@ -0,0 +1,103 @@
+package com.gomentr.emailmanager.helpers;
+
+import com.gomentr.emailmanager.models.UidCheckpoint;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Stores the checkpoints in a properties file
+ * Each folder key maps to "uidValidity:lastUid"
+ */
+public class FileUidCheckpointStore implements UidCheckpointStore {
+
+    //region VARIABLES
+
+    protected final File file;
+
+    private Properties checkpoints;
+
+    //endregion
+
+    //region STORE METHODS
+
+    public synchronized UidCheckpoint load(String folderKey)
+            throws IOException {
+        String value = getCheckpoints().getProperty(folderKey);
+        if (value == null)
+            return null;
+
+        int separator = value.indexOf(':');
+        if (separator < 0)
+            return null;
+        try {
+            return new UidCheckpoint(Long.parseLong(value.substring(0, separator)), Long.parseLong(value.substring(separator + 1)));
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the whole file to a temporary file first and then renames it,
+     * so a crash never leaves a half written checkpoint file behind
+     */
+    public synchronized void save(String folderKey, UidCheckpoint checkpoint)
+            throws IOException {
+        Properties checkpoints = getCheckpoints();
+        checkpoints.setProperty(folderKey, checkpoint.getUidValidity() + ":" + checkpoint.getLastUid());
+
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs())
+            throw new IOException("Cannot create the checkpoint directory " + directory);
+
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        OutputStream output = new FileOutputStream(temporaryFile);
+        try {
+            checkpoints.store(output, "Email reader UID checkpoints");
+            output.flush();
+            ((FileOutputStream) output).getFD().sync();
+        }
+        finally {
+            output.close();
+        }
+
+        if (!temporaryFile.renameTo(file)) {
+            if (!file.delete() || !temporaryFile.renameTo(file))
+                throw new IOException("Cannot replace the checkpoint file " + file);
+        }
+    }
+
+    private Properties getCheckpoints()
+            throws IOException {
+        if (checkpoints == null) {
+            checkpoints = new Properties();
+            if (file.exists()) {
+                InputStream input = new FileInputStream(file);
+                try {
+                    checkpoints.load(input);
+                }
+                finally {
+                    input.close();
+                }
+            }
+        }
+        return checkpoints;
+    }
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    public FileUidCheckpointStore(File file) {
+        this.file = file;
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,132 @@
+package com.gomentr.emailmanager.helpers;
+
+import com.sun.mail.iap.ProtocolException;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.IMAPStore;
+import com.sun.mail.imap.protocol.IMAPProtocol;
+
+import javax.mail.Flags;
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the messages to be moved out of a folder and moves them
+ * with one command per destination folder
+ * Uses the IMAP MOVE extension when the server has it, otherwise
+ * copies the messages, marks them as deleted and expunges once
+ */
+public class FolderMoveBatch {
+
+    //region VARIABLES
+
+    protected final Folder sourceFolder;
+
+    private final Map<Folder, List<Message>> pendingMoves = new LinkedHashMap<Folder, List<Message>>();
+
+    //endregion
+
+    //region BATCH METHODS
+
+    public void add(Message message, Folder destinationFolder) {
+        List<Message> messages = pendingMoves.get(destinationFolder);
+        if (messages == null) {
+            messages = new ArrayList<Message>();
+            pendingMoves.put(destinationFolder, messages);
+        }
+        messages.add(message);
+    }
+
+    public boolean isEmpty() {
+        return pendingMoves.isEmpty();
+    }
+
+    /**
+     * Moves the collected messages and empties the batch
+     */
+    public void flush()
+            throws MessagingException {
+        if (pendingMoves.isEmpty())
+            return;
+
+        List<Message> deletedMessages = new ArrayList<Message>();
+        for (Map.Entry<Folder, List<Message>> entry : pendingMoves.entrySet()) {
+            Message[] messages = entry.getValue().toArray(new Message[entry.getValue().size()]);
+            if (moveMessages(messages, entry.getKey()))
+                deletedMessages.addAll(entry.getValue());
+        }
+        pendingMoves.clear();
+
+        if (!deletedMessages.isEmpty()) {
+            // UID EXPUNGE removes only our messages, a plain EXPUNGE also removes
+            // the messages other clients marked as deleted
+            if (hasCapability("UIDPLUS"))
+                ((IMAPFolder) sourceFolder).expunge(deletedMessages.toArray(new Message[deletedMessages.size()]));
+            else
+                sourceFolder.expunge();
+        }
+    }
+
+    /**
+     * Moves the messages of one destination folder
+     * Returns true when the messages were only copied and marked as deleted,
+     * they are then expunged once all the destinations are done
+     */
+    protected boolean moveMessages(Message[] messages, Folder destinationFolder)
+            throws MessagingException {
+        return moveMessages(sourceFolder, messages, destinationFolder);
+    }
+
+    /**
+     * Moves messages with the IMAP MOVE extension when the server has it,
+     * otherwise copies them and marks them as deleted, returning true
+     */
+    public static boolean moveMessages(Folder sourceFolder, Message[] messages, Folder destinationFolder)
+            throws MessagingException {
+        if (hasCapability(sourceFolder, "MOVE")) {
+            ((IMAPFolder) sourceFolder).moveMessages(messages, destinationFolder);
+            return false;
+        }
+        sourceFolder.copyMessages(messages, destinationFolder);
+        sourceFolder.setFlags(messages, new Flags(Flags.Flag.DELETED), true);
+        return true;
+    }
+
+    private boolean hasCapability(String capability)
+            throws MessagingException {
+        return hasCapability(sourceFolder, capability);
+    }
+
+    /**
+     * Asks the connection of the open source folder, IMAPStore.hasCapability
+     * would open another connection once the folder took the one of the store
+     */
+    private static boolean hasCapability(Folder sourceFolder, final String capability)
+            throws MessagingException {
+        if (!(sourceFolder instanceof IMAPFolder))
+            return false;
+        if (!sourceFolder.isOpen())
+            return sourceFolder.getStore() instanceof IMAPStore
+                    && ((IMAPStore) sourceFolder.getStore()).hasCapability(capability);
+        return (Boolean) ((IMAPFolder) sourceFolder).doCommand(new IMAPFolder.ProtocolCommand() {
+            public Object doCommand(IMAPProtocol protocol) throws ProtocolException {
+                return protocol.hasCapability(capability);
+            }
+        });
+    }
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    public FolderMoveBatch(Folder sourceFolder) {
+        this.sourceFolder = sourceFolder;
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,175 @@
+package com.gomentr.emailmanager.helpers;
+
+import javax.mail.Folder;
+import javax.mail.MessagingException;
+import javax.mail.Store;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded pool of connected IMAP stores and their open folders
+ * Stores and folders are kept open between reads so that the TLS handshake,
+ * the login and the SELECT of each folder are only paid once per connection
+ */
+public class ImapSessionPool {
+
+    //region VARIABLES
+
+    /**
+     * Connects a new store and opens its folders when the pool needs them
+     */
+    public interface SessionFactory {
+        Store connectStore() throws Exception;
+
+        Folder openFolder(Store store, String folderName) throws Exception;
+    }
+
+    protected final SessionFactory sessionFactory;
+
+    /**
+     * Each session holds one connection per open folder, the first folder
+     * opened takes the connection of the store
+     * Idle sessions are checked with a NOOP on each open folder before being reused
+     */
+    private final ConnectionPool<PooledSession> sessions;
+
+    //endregion
+
+    //region POOL METHODS
+
+    /**
+     * Borrows a connected session from the pool
+     * Reuses the most recently returned session when it is still healthy,
+     * otherwise connects a new one
+     */
+    public PooledSession borrowSession()
+            throws Exception {
+        return sessions.borrow();
+    }
+
+    /**
+     * Gives a healthy session back to the pool
+     */
+    public void returnSession(PooledSession pooled) {
+        sessions.giveBack(pooled);
+    }
+
+    /**
+     * Closes a session that failed and frees its slot in the pool
+     */
+    public void invalidateSession(PooledSession pooled) {
+        sessions.invalidate(pooled);
+    }
+
+    /**
+     * Closes the idle sessions and refuses further borrows
+     * Borrowed sessions are closed when they are returned
+     */
+    public void close() {
+        sessions.close();
+    }
+
+    public int getIdleCount() {
+        return sessions.getIdleCount();
+    }
+
+    /**
+     * getMessageCount on an open IMAP folder sends a NOOP on its connection
+     * IMAPStore.isConnected sends one too, but once a folder holds the
+     * connection of the store it opens a new connection to do so, so the
+     * store is only asked when no folder is open
+     */
+    protected boolean isHealthy(PooledSession pooled) {
+        try {
+            for (Folder folder : pooled.folders.values()) {
+                if (!folder.isOpen())
+                    return false;
+                folder.getMessageCount();
+            }
+            return !pooled.folders.isEmpty() || pooled.store.isConnected();
+        }
+        catch (MessagingException e) {
+            return false;
+        }
+    }
+
+    //endregion
+
+    //region POOLED SESSION
+
+    /**
+     * A store owned by the pool, with the folders opened on it so far
+     */
+    public static class PooledSession extends ConnectionPool.PooledConnection {
+
+        private final SessionFactory sessionFactory;
+        private final Store store;
+        private final Map<String, Folder> folders = new LinkedHashMap<String, Folder>();
+
+        PooledSession(SessionFactory sessionFactory, Store store) {
+            this.sessionFactory = sessionFactory;
+            this.store = store;
+        }
+
+        public Store getStore() {
+            return this.store;
+        }
+
+        /**
+         * Returns an open folder, opening it on first use
+         */
+        public Folder getFolder(String folderName)
+                throws Exception {
+            Folder folder = folders.get(folderName);
+            if (folder == null || !folder.isOpen()) {
+                folder = sessionFactory.openFolder(store, folderName);
+                folders.put(folderName, folder);
+            }
+            return folder;
+        }
+
+        private void closeQuietly() {
+            for (Folder folder : folders.values()) {
+                try {
+                    if (folder.isOpen())
+                        folder.close(false);
+                }
+                catch (MessagingException e) {
+                    // The connection is being dropped anyway
+                }
+            }
+            folders.clear();
+            try {
+                store.close();
+            }
+            catch (MessagingException e) {
+                // The connection is being dropped anyway
+            }
+        }
+    }
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    public ImapSessionPool(final SessionFactory sessionFactory, int maxSessions,
+                           long maxIdleMillis, long validationIntervalMillis, long borrowTimeoutMillis) {
+        this.sessionFactory = sessionFactory;
+        this.sessions = new ConnectionPool<PooledSession>(new ConnectionPool.ConnectionFactory<PooledSession>() {
+            public PooledSession openConnection() throws Exception {
+                return new PooledSession(sessionFactory, sessionFactory.connectStore());
+            }
+
+            public boolean isHealthy(PooledSession pooled) {
+                return ImapSessionPool.this.isHealthy(pooled);
+            }
+
+            public void closeQuietly(PooledSession pooled) {
+                pooled.closeQuietly();
+            }
+        }, "IMAP", maxSessions, maxIdleMillis, validationIntervalMillis, borrowTimeoutMillis);
+    }
+
+    //endregion
+
+}
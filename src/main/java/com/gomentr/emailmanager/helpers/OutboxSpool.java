@@ -0,0 +1,498 @@
+package com.gomentr.emailmanager.helpers;
+
+import com.gomentr.emailmanager.models.OutgoingNotification;
+import com.gomentr.emailmanager.models.SendResultModel;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of outgoing emails on local disk, delivered in the background
+ * sendEmail appends the email to a memory-mapped segment file and returns, a drainer
+ * thread sends the journaled emails in batches over the pooled connections and marks
+ * each record as done in place, and segments whose records are all done are deleted
+ * Delivery is at least once: an email sent right before a crash may be sent again
+ */
+public class OutboxSpool implements Runnable {
+
+    /**
+     * A record is its header followed by the notification bytes
+     * The header holds the payload length, the CRC32 of the payload, the state
+     * and the number of attempts, the length is written last and commits the record
+     */
+    static final int HEADER_SIZE = 10;
+    static final int STATE_OFFSET = 8;
+    static final int ATTEMPTS_OFFSET = 9;
+
+    static final byte STATE_PENDING = 0;
+    static final byte STATE_SENT = 1;
+    static final byte STATE_FAILED = 2;
+
+    static final String SEGMENT_PREFIX = "outbox-";
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    //region VARIABLES
+
+    protected final EmailSender emailSender;
+    protected final File directory;
+    protected final int segmentSize;
+    protected final boolean forceOnAppend;
+
+    /**
+     * The number of emails handed to the sender at once
+     */
+    protected int batchSize = 64;
+
+    /**
+     * Transient failures are retried until this many attempts were made,
+     * waiting twice as long before each new attempt
+     * The attempts are kept in the record, the waiting times are not
+     */
+    protected int maxAttempts = 10;
+    protected long initialBackoffMillis = 1000;
+    protected long maxBackoffMillis = 60000;
+
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private final Map<Long, Long> retryTimes = new HashMap<Long, Long>();
+    private final Thread drainer;
+    private long appendCount;
+    private long nextSequence;
+    private volatile boolean open = true;
+    private volatile Exception lastError;
+
+    //endregion
+
+    //region SPOOL METHODS
+
+    /**
+     * Journals an email for delivery
+     * Returns once the record is written to the mapped segment, and forced
+     * to the disk when forceOnAppend is set
+     */
+    public void append(OutgoingNotification notification)
+            throws IOException {
+        byte[] payload = notification.toBytes();
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+
+        synchronized (this) {
+            if (!open)
+                throw new IllegalStateException("The outbox spool is closed");
+
+            int recordSize = HEADER_SIZE + payload.length;
+            Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (segment == null || segment.writePosition + recordSize > segment.capacity)
+                segment = createSegment(recordSize);
+
+            int offset = segment.writePosition;
+            MappedByteBuffer buffer = segment.buffer;
+            buffer.putInt(offset + 4, (int) crc.getValue());
+            buffer.put(offset + STATE_OFFSET, STATE_PENDING);
+            buffer.put(offset + ATTEMPTS_OFFSET, (byte) 0);
+            ByteBuffer payloadBuffer = buffer.duplicate();
+            payloadBuffer.position(offset + HEADER_SIZE);
+            payloadBuffer.put(payload);
+            buffer.putInt(offset, payload.length);
+            if (forceOnAppend)
+                buffer.force();
+
+            segment.writePosition = offset + recordSize;
+            segment.pendingCount++;
+            appendCount++;
+            notifyAll();
+        }
+    }
+
+    /**
+     * The number of journaled emails not delivered yet
+     */
+    public synchronized int getPendingCount() {
+        int pending = 0;
+        for (Segment segment : segments)
+            pending += segment.pendingCount;
+        return pending;
+    }
+
+    /**
+     * The last delivery error, kept for monitoring
+     */
+    public Exception getLastError() {
+        return lastError;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setRetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Stops accepting emails, lets the drainer finish its current batch and
+     * closes the segments, the pending emails are delivered after a restart
+     */
+    public void close(long timeoutMillis)
+            throws InterruptedException {
+        synchronized (this) {
+            if (!open)
+                return;
+            open = false;
+            notifyAll();
+        }
+        drainer.join(timeoutMillis);
+        if (drainer.isAlive()) {
+            drainer.interrupt();
+            drainer.join();
+        }
+
+        synchronized (this) {
+            for (Segment segment : segments)
+                segment.close();
+            segments.clear();
+        }
+    }
+
+    /**
+     * Delivers the journaled emails until the spool is closed
+     */
+    public void run() {
+        long backoff = initialBackoffMillis;
+        while (open) {
+            long seenAppends;
+            synchronized (this) {
+                seenAppends = appendCount;
+            }
+
+            try {
+                List<Record> batch = new ArrayList<Record>();
+                long nextRetryTime = collectBatch(batch);
+                if (batch.isEmpty()) {
+                    awaitWork(seenAppends, nextRetryTime);
+                    continue;
+                }
+
+                deliverBatch(batch);
+                compactSegments();
+                backoff = initialBackoffMillis;
+            }
+            catch (InterruptedException e) {
+                break;
+            }
+            catch (Exception e) {
+                // The sender itself failed, the batch stays pending
+                lastError = e;
+                sleepQuietly(backoff);
+                backoff = Math.min(backoff * 2, maxBackoffMillis);
+            }
+        }
+    }
+
+    /**
+     * Collects the next pending records, oldest first, skipping the ones
+     * waiting for a retry
+     * Returns the earliest time a skipped record can be retried, or 0
+     */
+    private synchronized long collectBatch(List<Record> batch) {
+        long now = System.currentTimeMillis();
+        long nextRetryTime = 0;
+        for (Segment segment : segments) {
+            int position = segment.scanPosition;
+            boolean leadingDone = true;
+            while (position < segment.writePosition && batch.size() < batchSize) {
+                int length = segment.buffer.getInt(position);
+                byte state = segment.buffer.get(position + STATE_OFFSET);
+                if (state == STATE_PENDING) {
+                    leadingDone = false;
+                    Long retryTime = retryTimes.get(recordKey(segment, position));
+                    if (retryTime == null || retryTime <= now)
+                        batch.add(readRecord(segment, position, length));
+                    else if (nextRetryTime == 0 || retryTime < nextRetryTime)
+                        nextRetryTime = retryTime;
+                }
+                position += HEADER_SIZE + length;
+                // Records before the first pending one are never read again
+                if (leadingDone)
+                    segment.scanPosition = position;
+            }
+            if (batch.size() >= batchSize)
+                break;
+        }
+        return nextRetryTime;
+    }
+
+    private void deliverBatch(List<Record> batch)
+            throws Exception {
+        List<OutgoingNotification> notifications = new ArrayList<OutgoingNotification>(batch.size());
+        List<Record> deliverable = new ArrayList<Record>(batch.size());
+        for (Record record : batch) {
+            if (record.notification == null)
+                markRecord(record, STATE_FAILED);
+            else {
+                notifications.add(record.notification);
+                deliverable.add(record);
+            }
+        }
+
+        List<SendResultModel> results = emailSender.sendEmails(notifications);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < results.size(); i++) {
+            Record record = deliverable.get(i);
+            SendResultModel result = results.get(i);
+            if (result.isSent())
+                markRecord(record, STATE_SENT);
+            else {
+                lastError = result.getException();
+                int attempts = record.attempts + 1;
+                if (result.getStatus() == SendResultModel.Status.PERMANENT_FAILURE || attempts >= maxAttempts)
+                    markRecord(record, STATE_FAILED);
+                else
+                    deferRecord(record, attempts,
+                            now + Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempts - 1, 20)));
+            }
+        }
+
+        if (forceOnAppend) {
+            synchronized (this) {
+                for (Segment segment : segments)
+                    segment.buffer.force();
+            }
+        }
+    }
+
+    private synchronized void markRecord(Record record, byte state) {
+        record.segment.buffer.put(record.position + STATE_OFFSET, state);
+        record.segment.pendingCount--;
+        retryTimes.remove(recordKey(record.segment, record.position));
+    }
+
+    private synchronized void deferRecord(Record record, int attempts, long retryTime) {
+        record.segment.buffer.put(record.position + ATTEMPTS_OFFSET, (byte) Math.min(attempts, Byte.MAX_VALUE));
+        retryTimes.put(recordKey(record.segment, record.position), retryTime);
+    }
+
+    /**
+     * Deletes the oldest segments once all their records are done
+     * The segment being written to is kept
+     */
+    private synchronized void compactSegments() {
+        while (segments.size() > 1 && segments.get(0).pendingCount == 0) {
+            Segment segment = segments.remove(0);
+            segment.close();
+            if (!segment.file.delete())
+                lastError = new IOException("Could not delete the outbox segment " + segment.file);
+        }
+    }
+
+    private synchronized void awaitWork(long seenAppends, long nextRetryTime)
+            throws InterruptedException {
+        if (!open || appendCount != seenAppends)
+            return;
+        long timeout = nextRetryTime > 0 ? Math.max(1, nextRetryTime - System.currentTimeMillis()) : 0;
+        wait(timeout);
+    }
+
+    private Record readRecord(Segment segment, int position, int length) {
+        byte[] payload = new byte[length];
+        ByteBuffer payloadBuffer = segment.buffer.duplicate();
+        payloadBuffer.position(position + HEADER_SIZE);
+        payloadBuffer.get(payload);
+
+        OutgoingNotification notification;
+        try {
+            notification = OutgoingNotification.fromBytes(payload);
+        }
+        catch (IOException e) {
+            lastError = e;
+            notification = null;
+        }
+        return new Record(segment, position, notification, segment.buffer.get(position + ATTEMPTS_OFFSET));
+    }
+
+    private static long recordKey(Segment segment, int position) {
+        return (segment.sequence << 32) | position;
+    }
+
+    private void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //endregion
+
+    //region SEGMENTS
+
+    /**
+     * Opens the segments left by a previous run and finds where each one ends
+     * A record whose checksum does not match was torn by a crash, it and
+     * everything after it in the segment are cleared
+     */
+    private void recoverSegments()
+            throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null)
+            throw new IOException("Cannot list the outbox directory " + directory);
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File first, File second) {
+                return Long.compare(parseSequence(first), parseSequence(second));
+            }
+        });
+
+        for (File file : files) {
+            long sequence = parseSequence(file);
+            Segment segment = new Segment(file, sequence, (int) Math.max(segmentSize, file.length()));
+            nextSequence = Math.max(nextSequence, sequence + 1);
+
+            int position = 0;
+            while (position + HEADER_SIZE <= segment.capacity) {
+                int length = segment.buffer.getInt(position);
+                if (length <= 0 || position + HEADER_SIZE + length > segment.capacity
+                        || !checksumMatches(segment, position, length))
+                    break;
+                if (segment.buffer.get(position + STATE_OFFSET) == STATE_PENDING)
+                    segment.pendingCount++;
+                position += HEADER_SIZE + length;
+            }
+            segment.writePosition = position;
+            if (position + 4 <= segment.capacity && segment.buffer.getInt(position) != 0) {
+                // The remains of a torn record must not follow the next appended one
+                for (int i = position; i < segment.capacity; i++)
+                    segment.buffer.put(i, (byte) 0);
+            }
+            segments.add(segment);
+        }
+
+        // Only the last segment is appended to, the other finished ones can go
+        compactSegments();
+    }
+
+    private boolean checksumMatches(Segment segment, int position, int length) {
+        byte[] payload = new byte[length];
+        ByteBuffer payloadBuffer = segment.buffer.duplicate();
+        payloadBuffer.position(position + HEADER_SIZE);
+        payloadBuffer.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue() == segment.buffer.getInt(position + 4);
+    }
+
+    private Segment createSegment(int recordSize)
+            throws IOException {
+        long sequence = nextSequence++;
+        File file = new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        Segment segment = new Segment(file, sequence, Math.max(segmentSize, recordSize));
+        segments.add(segment);
+        return segment;
+    }
+
+    private static long parseSequence(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * One mapped segment file
+     */
+    private static class Segment {
+
+        final File file;
+        final long sequence;
+        final int capacity;
+        final RandomAccessFile randomAccessFile;
+        final MappedByteBuffer buffer;
+
+        /** written under the spool lock, records below it are committed */
+        int writePosition;
+        /** the records below it are all done */
+        int scanPosition;
+        int pendingCount;
+
+        Segment(File file, long sequence, int capacity)
+                throws IOException {
+            this.file = file;
+            this.sequence = sequence;
+            this.capacity = capacity;
+            this.randomAccessFile = new RandomAccessFile(file, "rw");
+            this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+
+        void close() {
+            try {
+                buffer.force();
+                randomAccessFile.close();
+            }
+            catch (IOException e) {
+                // The records were already written to the mapping
+            }
+        }
+    }
+
+    /**
+     * A pending record read by the drainer
+     */
+    private static class Record {
+
+        final Segment segment;
+        final int position;
+        final OutgoingNotification notification;
+        final int attempts;
+
+        Record(Segment segment, int position, OutgoingNotification notification, int attempts) {
+            this.segment = segment;
+            this.position = position;
+            this.notification = notification;
+            this.attempts = attempts;
+        }
+    }
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    /**
+     * Opens the journal in a directory, recovering the emails a previous run
+     * did not deliver, and starts the drainer
+     * A segment is segmentSize bytes, or larger when one email does not fit
+     * forceOnAppend forces each record to the disk, so that it survives a
+     * power loss and not only a crash of the process
+     */
+    public OutboxSpool(EmailSender emailSender, File directory, int segmentSize, boolean forceOnAppend)
+            throws IOException {
+        this.emailSender = emailSender;
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.forceOnAppend = forceOnAppend;
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create the outbox directory " + directory);
+        recoverSegments();
+
+        this.drainer = EmailSendQueue.daemonThreadFactory("email-outbox-drainer").newThread(this);
+        this.drainer.start();
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,287 @@
+package com.gomentr.emailmanager.helpers;
+
+import com.gomentr.emailmanager.models.DetachedMessageModel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the downloaded and parsed contents of the messages the email reader
+ * has already processed, so that reading a message again skips its download
+ * and the parser pipeline
+ * The memory tier is bounded by the characters it holds and evicts the least
+ * recently used messages first
+ * With a directory, every message is also written to a disk tier bounded by
+ * its size in bytes, which survives restarts and serves the memory misses
+ */
+public class ParsedContentCache {
+
+    static final String FILE_SUFFIX = ".msg";
+    /** characters counted for each entry on top of its contents */
+    static final int ENTRY_OVERHEAD = 64;
+
+    //region VARIABLES
+
+    protected final long maxMemoryChars;
+    protected final File directory;
+    protected final long maxDiskBytes;
+
+    private final LinkedHashMap<String, DetachedMessageModel> entries = new LinkedHashMap<String, DetachedMessageModel>(16, 0.75f, true);
+    private long memoryChars;
+
+    /** file name to file size, least recently used first, loaded from the directory on first use */
+    private LinkedHashMap<String, Long> diskEntries;
+    private long diskBytes;
+
+    private long hitCount;
+    private long missCount;
+
+    //endregion
+
+    //region CACHE METHODS
+
+    /**
+     * Returns the cached message, or null
+     */
+    public synchronized DetachedMessageModel get(String key)
+            throws IOException {
+        DetachedMessageModel model = entries.get(key);
+        if (model == null && directory != null) {
+            model = readDiskEntry(key);
+            if (model != null)
+                putMemoryEntry(key, model);
+        }
+
+        if (model != null)
+            hitCount++;
+        else
+            missCount++;
+        return model;
+    }
+
+    public synchronized void put(String key, DetachedMessageModel model)
+            throws IOException {
+        putMemoryEntry(key, model);
+        if (directory != null)
+            writeDiskEntry(key, model);
+    }
+
+    /**
+     * True when the message is cached, without counting a hit or a miss
+     */
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key)
+                || (directory != null && getDiskEntries().containsKey(getFileName(key)));
+    }
+
+    /**
+     * Empties both tiers
+     */
+    public synchronized void clear() {
+        entries.clear();
+        memoryChars = 0;
+        if (directory != null) {
+            for (String fileName : getDiskEntries().keySet())
+                new File(directory, fileName).delete();
+            diskEntries.clear();
+            diskBytes = 0;
+        }
+    }
+
+    public synchronized int getMemoryEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getMemoryChars() {
+        return memoryChars;
+    }
+
+    public synchronized long getDiskBytes() {
+        return directory != null ? diskBytes : 0;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    //endregion
+
+    //region MEMORY TIER
+
+    private void putMemoryEntry(String key, DetachedMessageModel model) {
+        DetachedMessageModel previous = entries.put(key, model);
+        if (previous != null)
+            memoryChars -= weigh(previous);
+        memoryChars += weigh(model);
+
+        Iterator<DetachedMessageModel> eldest = entries.values().iterator();
+        while (memoryChars > maxMemoryChars && eldest.hasNext()) {
+            memoryChars -= weigh(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private static long weigh(DetachedMessageModel model) {
+        return ENTRY_OVERHEAD
+                + (model.getContent() != null ? model.getContent().length() : 0)
+                + (model.getParsedContent() != null ? model.getParsedContent().length() : 0);
+    }
+
+    //endregion
+
+    //region DISK TIER
+
+    /**
+     * Reads a message from its file, a file that cannot be read is dropped
+     * The key is stored in the file, so that a hash collision reads as a miss
+     */
+    private DetachedMessageModel readDiskEntry(String key)
+            throws IOException {
+        String fileName = getFileName(key);
+        if (getDiskEntries().get(fileName) == null)
+            return null;
+
+        File file = new File(directory, fileName);
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (!key.equals(input.readUTF()))
+                    return null;
+                return DetachedMessageModel.readFrom(input);
+            }
+            finally {
+                input.close();
+            }
+        }
+        catch (IOException e) {
+            removeDiskEntry(fileName);
+            return null;
+        }
+    }
+
+    /**
+     * Writes a message to a temporary file first and then renames it,
+     * so a crash never leaves a half written entry behind
+     */
+    private void writeDiskEntry(String key, DetachedMessageModel model)
+            throws IOException {
+        if (!directory.exists() && !directory.mkdirs())
+            throw new IOException("Cannot create the cache directory " + directory);
+
+        String fileName = getFileName(key);
+        File file = new File(directory, fileName);
+        File temporaryFile = new File(directory, fileName + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+        try {
+            output.writeUTF(key);
+            model.writeTo(output);
+        }
+        finally {
+            output.close();
+        }
+
+        removeDiskEntry(fileName);
+        if (!temporaryFile.renameTo(file)) {
+            temporaryFile.delete();
+            throw new IOException("Cannot write the cache file " + file);
+        }
+        getDiskEntries().put(fileName, file.length());
+        diskBytes += file.length();
+
+        Iterator<Map.Entry<String, Long>> eldest = diskEntries.entrySet().iterator();
+        while (diskBytes > maxDiskBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            new File(directory, entry.getKey()).delete();
+            diskBytes -= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    private void removeDiskEntry(String fileName) {
+        Long size = getDiskEntries().remove(fileName);
+        if (size != null) {
+            new File(directory, fileName).delete();
+            diskBytes -= size;
+        }
+    }
+
+    /**
+     * Lists the files left by previous runs, the least recently written first
+     */
+    private LinkedHashMap<String, Long> getDiskEntries() {
+        if (diskEntries == null) {
+            diskEntries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+            File[] files = directory.listFiles();
+            if (files != null) {
+                Arrays.sort(files, new Comparator<File>() {
+                    public int compare(File first, File second) {
+                        return Long.compare(first.lastModified(), second.lastModified());
+                    }
+                });
+                for (File file : files) {
+                    if (file.getName().endsWith(FILE_SUFFIX)) {
+                        diskEntries.put(file.getName(), file.length());
+                        diskBytes += file.length();
+                    }
+                }
+            }
+        }
+        return diskEntries;
+    }
+
+    static String getFileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(Charset.forName("UTF-8")));
+            StringBuilder fileName = new StringBuilder(digest.length * 2 + FILE_SUFFIX.length());
+            for (byte b : digest) {
+                fileName.append(Character.forDigit((b >> 4) & 0xF, 16));
+                fileName.append(Character.forDigit(b & 0xF, 16));
+            }
+            return fileName.append(FILE_SUFFIX).toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    /**
+     * Creates a cache held in memory only
+     */
+    public ParsedContentCache(long maxMemoryChars) {
+        this(maxMemoryChars, null, 0);
+    }
+
+    /**
+     * Creates a cache whose disk tier lives in the directory
+     */
+    public ParsedContentCache(long maxMemoryChars, File directory, long maxDiskBytes) {
+        this.maxMemoryChars = maxMemoryChars;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,12 @@
+package com.gomentr.emailmanager.helpers;
+
+import com.gomentr.emailmanager.models.ReceivedMessageModel;
+
+/**
+ * Receives the messages processed by the email reader one at a time
+ */
+public interface ReceivedMessageCallback {
+
+    void onMessage(ReceivedMessageModel message) throws Exception;
+
+}
@@ -0,0 +1,126 @@
+package com.gomentr.emailmanager.helpers;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the sending rate of one SMTP account
+ * The rate adapts to the server with AIMD: it grows by additiveIncrease
+ * messages per second for each second of accepted sends, and is multiplied
+ * by decreaseFactor when the server throttles, at most once per cooldown
+ * so that a burst of rejections of the messages in flight counts once
+ * Each EmailSender owns the limiter of its account
+ */
+public class SendRateLimiter {
+
+    //region VARIABLES
+
+    protected final double minRate;
+    protected final double maxRate;
+
+    protected double additiveIncrease = 1;
+    protected double decreaseFactor = 0.5;
+    protected long decreaseCooldownMillis = 1000;
+
+    /**
+     * Tokens accumulate for this long at most, which bounds the bursts
+     */
+    protected double burstSeconds = 1;
+
+    private double rate;
+    private double tokens;
+    private long lastRefillNanos;
+    private long lastDecreaseNanos;
+    private long lastThrottleMillis;
+    private long throttleCount;
+
+    //endregion
+
+    //region LIMITER METHODS
+
+    /**
+     * Waits for a token
+     * Each caller reserves its token before waiting, so concurrent
+     * senders are spaced out instead of all waking up at once
+     */
+    public void acquire()
+            throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            refill(System.nanoTime());
+            tokens -= 1;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+        }
+        if (waitNanos > 0)
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    /**
+     * Records a message accepted by the server
+     */
+    public synchronized void onSuccess() {
+        rate = Math.min(maxRate, rate + additiveIncrease / rate);
+    }
+
+    /**
+     * Records a message rejected because the account is sending too fast
+     */
+    public synchronized void onThrottle() {
+        long now = System.nanoTime();
+        throttleCount++;
+        lastThrottleMillis = System.currentTimeMillis();
+        if (lastDecreaseNanos == 0 || now - lastDecreaseNanos >= TimeUnit.MILLISECONDS.toNanos(decreaseCooldownMillis)) {
+            refill(now);
+            rate = Math.max(minRate, rate * decreaseFactor);
+            lastDecreaseNanos = now;
+        }
+    }
+
+    /**
+     * The current rate, in messages per second
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    public synchronized long getThrottleCount() {
+        return throttleCount;
+    }
+
+    /**
+     * The time of the last throttling, in milliseconds since the epoch, or 0
+     */
+    public synchronized long getLastThrottleMillis() {
+        return lastThrottleMillis;
+    }
+
+    public synchronized void setAimdPolicy(double additiveIncrease, double decreaseFactor, long decreaseCooldownMillis) {
+        this.additiveIncrease = additiveIncrease;
+        this.decreaseFactor = decreaseFactor;
+        this.decreaseCooldownMillis = decreaseCooldownMillis;
+    }
+
+    public synchronized void setBurstSeconds(double burstSeconds) {
+        this.burstSeconds = burstSeconds;
+    }
+
+    private void refill(long now) {
+        double capacity = Math.max(1, rate * burstSeconds);
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) / 1e9 * rate);
+        lastRefillNanos = now;
+    }
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    public SendRateLimiter(double initialRate, double minRate, double maxRate) {
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.rate = Math.max(minRate, Math.min(maxRate, initialRate));
+        this.tokens = 1;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    //endregion
+
+}
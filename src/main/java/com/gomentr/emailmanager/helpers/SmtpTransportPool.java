@@ -0,0 +1,129 @@
+package com.gomentr.emailmanager.helpers;
+
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+
+/**
+ * Bounded pool of connected SMTP transports
+ * Transports are kept open between sends so that the TLS handshake
+ * and the authentication are only paid once per connection
+ */
+public class SmtpTransportPool {
+
+    //region VARIABLES
+
+    /**
+     * Opens and connects a new transport when the pool needs one
+     */
+    public interface TransportFactory {
+        Transport openTransport() throws Exception;
+    }
+
+    protected final TransportFactory transportFactory;
+
+    /**
+     * Idle transports are checked with a NOOP before being reused
+     */
+    private final ConnectionPool<PooledTransport> transports;
+
+    //endregion
+
+    //region POOL METHODS
+
+    /**
+     * Borrows a connected transport from the pool
+     * Reuses the most recently returned connection when it is still healthy,
+     * otherwise opens a new one
+     */
+    public PooledTransport borrowTransport()
+            throws Exception {
+        return transports.borrow();
+    }
+
+    /**
+     * Gives a healthy transport back to the pool
+     */
+    public void returnTransport(PooledTransport pooled) {
+        transports.giveBack(pooled);
+    }
+
+    /**
+     * Closes a transport that failed and frees its slot in the pool
+     */
+    public void invalidateTransport(PooledTransport pooled) {
+        transports.invalidate(pooled);
+    }
+
+    /**
+     * Closes the idle connections and refuses further borrows
+     * Borrowed connections are closed when they are returned
+     */
+    public void close() {
+        transports.close();
+    }
+
+    public int getIdleCount() {
+        return transports.getIdleCount();
+    }
+
+    /**
+     * SMTPTransport.isConnected sends a NOOP to the server
+     */
+    protected boolean isHealthy(PooledTransport pooled) {
+        return pooled.transport.isConnected();
+    }
+
+    //endregion
+
+    //region POOLED TRANSPORT
+
+    /**
+     * A transport owned by the pool
+     */
+    public static class PooledTransport extends ConnectionPool.PooledConnection {
+
+        private final Transport transport;
+
+        PooledTransport(Transport transport) {
+            this.transport = transport;
+        }
+
+        public Transport getTransport() {
+            return this.transport;
+        }
+
+        private void closeQuietly() {
+            try {
+                transport.close();
+            }
+            catch (MessagingException e) {
+                // The connection is being dropped anyway
+            }
+        }
+    }
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    public SmtpTransportPool(final TransportFactory transportFactory, int maxTransports,
+                             long maxIdleMillis, long validationIntervalMillis, long borrowTimeoutMillis) {
+        this.transportFactory = transportFactory;
+        this.transports = new ConnectionPool<PooledTransport>(new ConnectionPool.ConnectionFactory<PooledTransport>() {
+            public PooledTransport openConnection() throws Exception {
+                return new PooledTransport(transportFactory.openTransport());
+            }
+
+            public boolean isHealthy(PooledTransport pooled) {
+                return SmtpTransportPool.this.isHealthy(pooled);
+            }
+
+            public void closeQuietly(PooledTransport pooled) {
+                pooled.closeQuietly();
+            }
+        }, "SMTP", maxTransports, maxIdleMillis, validationIntervalMillis, borrowTimeoutMillis);
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,17 @@
+package com.gomentr.emailmanager.helpers;
+
+import com.gomentr.emailmanager.models.UidCheckpoint;
+
+/**
+ * Keeps the last UID processed by the email reader for each folder
+ */
+public interface UidCheckpointStore {
+
+    /**
+     * Returns the checkpoint of a folder, or null when it was never read
+     */
+    UidCheckpoint load(String folderKey) throws Exception;
+
+    void save(String folderKey, UidCheckpoint checkpoint) throws Exception;
+
+}
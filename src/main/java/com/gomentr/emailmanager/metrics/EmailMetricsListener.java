@@ -0,0 +1,75 @@
+package com.gomentr.emailmanager.metrics;
+
+import com.gomentr.emailmanager.parsers.ContentParser;
+
+/**
+ * Receives the timings and counts of the email sender and receiver
+ * Each timed step calls startTime before it runs and recordTime after,
+ * passing back the value startTime returned
+ * Implementations are called from several threads at once
+ */
+public interface EmailMetricsListener {
+
+    /**
+     * The timed steps
+     */
+    enum Stage {
+        /** connecting and logging in to the IMAP store */
+        STORE_CONNECT,
+        /** opening a folder */
+        FOLDER_OPEN,
+        /** listing the messages to read and prefetching their envelopes */
+        FETCH,
+        /** downloading the content of a message */
+        CONTENT_DOWNLOAD,
+        /** running the whole parser pipeline on a content, each parser is also timed alone */
+        CONTENT_PARSE,
+        /** extracting the notification ID from the recipient */
+        ID_EXTRACTION,
+        /** moving a window of messages to the processed and error folders */
+        FOLDER_MOVE,
+        /** connecting and logging in to the SMTP server */
+        TRANSPORT_CONNECT,
+        /** sending one message over a connected transport */
+        TRANSPORT_SEND,
+        /** waiting for the send rate limit of the account */
+        RATE_LIMIT_WAIT
+    }
+
+    /**
+     * The counted events
+     */
+    enum Counter {
+        /** messages handed to the callback */
+        MESSAGES_PROCESSED,
+        /** messages with an ID but no readable content */
+        MESSAGES_ERRORED,
+        /** messages without a notification ID */
+        MESSAGES_SKIPPED,
+        /** messages whose content came from the parsed content cache */
+        CONTENT_CACHE_HITS,
+        /** size of the downloaded message texts */
+        BYTES_DOWNLOADED,
+        /** messages accepted by the SMTP server */
+        MESSAGES_SENT,
+        /** sends that failed, including the ones retried later */
+        SEND_FAILURES,
+        /** sends the server rejected because the account sends too fast */
+        SEND_THROTTLED
+    }
+
+    /**
+     * Returns the start of a timed step, to be passed back to recordTime
+     */
+    long startTime();
+
+    void recordTime(Stage stage, long startTime);
+
+    /**
+     * Records the time of one parser of the pipeline
+     */
+    void recordParserTime(ContentParser parser, long startTime);
+
+    void increment(Counter counter, long amount);
+
+}
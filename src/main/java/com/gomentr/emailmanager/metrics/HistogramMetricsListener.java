@@ -0,0 +1,99 @@
+package com.gomentr.emailmanager.metrics;
+
+import com.gomentr.emailmanager.parsers.ContentParser;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a latency histogram per stage and per parser, and the counters, in memory
+ * Meant to be read periodically and bridged to a metrics system
+ */
+public class HistogramMetricsListener implements EmailMetricsListener {
+
+    //region VARIABLES
+
+    private final Map<Stage, LatencyHistogram> stageHistograms = new EnumMap<Stage, LatencyHistogram>(Stage.class);
+    private final ConcurrentMap<Class<?>, LatencyHistogram> parserHistograms = new ConcurrentHashMap<Class<?>, LatencyHistogram>();
+    private final Map<Counter, AtomicLong> counters = new EnumMap<Counter, AtomicLong>(Counter.class);
+
+    //endregion
+
+    //region LISTENER METHODS
+
+    public long startTime() {
+        return System.nanoTime();
+    }
+
+    public void recordTime(Stage stage, long startTime) {
+        stageHistograms.get(stage).record(System.nanoTime() - startTime);
+    }
+
+    public void recordParserTime(ContentParser parser, long startTime) {
+        long nanos = System.nanoTime() - startTime;
+        LatencyHistogram histogram = parserHistograms.get(parser.getClass());
+        if (histogram == null) {
+            parserHistograms.putIfAbsent(parser.getClass(), new LatencyHistogram());
+            histogram = parserHistograms.get(parser.getClass());
+        }
+        histogram.record(nanos);
+    }
+
+    public void increment(Counter counter, long amount) {
+        counters.get(counter).addAndGet(amount);
+    }
+
+    //endregion
+
+    //region READING METHODS
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return stageHistograms.get(stage);
+    }
+
+    /**
+     * Returns the histograms of the parsers that ran, by parser class name
+     */
+    public Map<String, LatencyHistogram> getParserHistograms() {
+        Map<String, LatencyHistogram> histograms = new TreeMap<String, LatencyHistogram>();
+        for (Map.Entry<Class<?>, LatencyHistogram> entry : parserHistograms.entrySet())
+            histograms.put(entry.getKey().getSimpleName(), entry.getValue());
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    public long getCount(Counter counter) {
+        return counters.get(counter).get();
+    }
+
+    /**
+     * Clears the histograms and counters, for metrics systems that expect deltas
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : stageHistograms.values())
+            histogram.reset();
+        for (LatencyHistogram histogram : parserHistograms.values())
+            histogram.reset();
+        for (AtomicLong counter : counters.values())
+            counter.set(0);
+    }
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    public HistogramMetricsListener() {
+        // The maps are filled once and only read afterwards, so they need no locking
+        for (Stage stage : Stage.values())
+            stageHistograms.put(stage, new LatencyHistogram());
+        for (Counter counter : Counter.values())
+            counters.put(counter, new AtomicLong());
+    }
+
+    //endregion
+
+}
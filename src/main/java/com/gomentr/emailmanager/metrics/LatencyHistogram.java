@@ -0,0 +1,103 @@
+package com.gomentr.emailmanager.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of durations in nanoseconds
+ * Each power of two is split in SUB_BUCKETS buckets, so a percentile is
+ * reported with less than 13% error whatever its magnitude
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    //region VARIABLES
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    //endregion
+
+    //region HISTOGRAM METHODS
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        buckets.incrementAndGet(bucketIndex(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+            max = maxNanos.get();
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public double getMeanNanos() {
+        long recorded = count.get();
+        return recorded == 0 ? 0 : (double) totalNanos.get() / recorded;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile, from 0 to 100
+     */
+    public long getPercentileNanos(double percentile) {
+        long recorded = 0;
+        for (int i = 0; i < buckets.length(); i++)
+            recorded += buckets.get(i);
+        if (recorded == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(recorded * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank)
+                return Math.min(bucketUpperBound(i), maxNanos.get());
+        }
+        return maxNanos.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++)
+            buckets.set(i, 0);
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    static int bucketIndex(long nanos) {
+        if (nanos < SUB_BUCKETS)
+            return (int) nanos;
+        int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        int shift = magnitude - SUB_BUCKET_BITS;
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+    //endregion
+
+}
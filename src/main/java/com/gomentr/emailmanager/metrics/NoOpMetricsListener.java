@@ -0,0 +1,29 @@
+package com.gomentr.emailmanager.metrics;
+
+import com.gomentr.emailmanager.parsers.ContentParser;
+
+/**
+ * Listener used when no metrics are collected
+ * startTime does not even read the clock, so once inlined the calls cost nothing
+ */
+public final class NoOpMetricsListener implements EmailMetricsListener {
+
+    public static final NoOpMetricsListener INSTANCE = new NoOpMetricsListener();
+
+    public long startTime() {
+        return 0;
+    }
+
+    public void recordTime(Stage stage, long startTime) {
+    }
+
+    public void recordParserTime(ContentParser parser, long startTime) {
+    }
+
+    public void increment(Counter counter, long amount) {
+    }
+
+    private NoOpMetricsListener() {
+    }
+
+}
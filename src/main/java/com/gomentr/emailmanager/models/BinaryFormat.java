@@ -0,0 +1,101 @@
+package com.gomentr.emailmanager.models;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Encoding shared by the binary forms of the models
+ * Strings are a varint length and UTF-8 bytes, zero standing for null
+ * and any other length being one more than the byte count
+ * A corrupt or truncated record fails with an IOException
+ */
+final class BinaryFormat {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** the bytes of a string are read by chunks of at most this size, doubling */
+    static final int READ_CHUNK_SIZE = 8192;
+
+    static void writeString(DataOutput output, String value)
+            throws IOException {
+        if (value == null) {
+            writeVarInt(output, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        writeVarInt(output, bytes.length + 1);
+        output.write(bytes);
+    }
+
+    static String readString(DataInput input)
+            throws IOException {
+        int length = readVarInt(input);
+        if (length == 0)
+            return null;
+        if (length < 0)
+            throw new IOException("Malformed length " + length);
+        return new String(readBytes(input, length - 1), UTF_8);
+    }
+
+    /**
+     * Reads a number of bytes taken from the record, growing the array as
+     * they arrive, so that a length past the end of the record fails with
+     * an EOFException instead of allocating the whole length first
+     */
+    static byte[] readBytes(DataInput input, int length)
+            throws IOException {
+        byte[] bytes = new byte[Math.min(length, READ_CHUNK_SIZE)];
+        int read = 0;
+        while (true) {
+            try {
+                input.readFully(bytes, read, bytes.length - read);
+            }
+            catch (EOFException e) {
+                throw new EOFException("Length " + length + " goes past the end of the record");
+            }
+            read = bytes.length;
+            if (read == length)
+                return bytes;
+            bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * read));
+        }
+    }
+
+    static void writeVarInt(DataOutput output, int value)
+            throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+
+    static int readVarInt(DataInput input)
+            throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = input.readUnsignedByte();
+            // The fifth byte holds the last 4 bits, more would overflow
+            if (shift == 28 && (b & 0xF0) != 0)
+                throw new IOException("Malformed length");
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed length");
+    }
+
+    /**
+     * Rough size of a string once written, used to presize buffers
+     */
+    static int estimateSize(String value) {
+        return value != null ? value.length() + 5 : 1;
+    }
+
+    private BinaryFormat() {
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.gomentr.emailmanager.models;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Snapshot of a received message that holds plain fields only
+ * Unlike ReceivedMessageModel it does not keep the javax.mail message, and
+ * through it the folder, the store and the cached MIME content, alive
+ * It can be written to a compact binary form to be queued off-heap or on disk
+ */
+public class DetachedMessageModel {
+
+    /** version of the binary form, written first */
+    static final int FORMAT_VERSION = 1;
+    static final long NO_DATE = Long.MIN_VALUE;
+
+    //region Variables
+
+    private String id;
+
+    private String fromAddress;
+    private String toAddress;
+
+    private String subject;
+    private String content;
+    private String parsedContent;
+
+    private Date sentDate;
+
+    //endregion
+
+    //region Setters and getters
+
+    public String getId() {
+        return this.id;
+    }
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getFromAddress() {
+        return this.fromAddress;
+    }
+    public void setFromAddress(String fromAddress) {
+        this.fromAddress = fromAddress;
+    }
+    public String getToAddress() {
+        return this.toAddress;
+    }
+    public void setToAddress(String toAddress) {
+        this.toAddress = toAddress;
+    }
+
+    public String getSubject() {
+        return this.subject;
+    }
+    public void setSubject(String subject) {
+        this.subject = subject;
+    }
+    public String getContent() {
+        return this.content;
+    }
+    public void setContent(String content) {
+        this.content = content;
+    }
+    public String getParsedContent() {
+        return this.parsedContent;
+    }
+    public void setParsedContent(String parsedContent) {
+        this.parsedContent = parsedContent;
+    }
+
+    public Date getSentDate() {
+        return this.sentDate;
+    }
+    public void setSentDate(Date sentDate) {
+        this.sentDate = sentDate;
+    }
+
+    //endregion
+
+    //region Serialization
+
+    /**
+     * Writes the message as a version byte followed by its fields
+     */
+    public void writeTo(DataOutput output)
+            throws IOException {
+        output.writeByte(FORMAT_VERSION);
+        BinaryFormat.writeString(output, this.id);
+        BinaryFormat.writeString(output, this.fromAddress);
+        BinaryFormat.writeString(output, this.toAddress);
+        BinaryFormat.writeString(output, this.subject);
+        output.writeLong(this.sentDate != null ? this.sentDate.getTime() : NO_DATE);
+        BinaryFormat.writeString(output, this.content);
+        BinaryFormat.writeString(output, this.parsedContent);
+    }
+
+    public static DetachedMessageModel readFrom(DataInput input)
+            throws IOException {
+        int version = input.readUnsignedByte();
+        if (version != FORMAT_VERSION)
+            throw new IOException("Unsupported message format version " + version);
+
+        String id = BinaryFormat.readString(input);
+        String fromAddress = BinaryFormat.readString(input);
+        String toAddress = BinaryFormat.readString(input);
+        String subject = BinaryFormat.readString(input);
+        long sentTime = input.readLong();
+        String content = BinaryFormat.readString(input);
+        String parsedContent = BinaryFormat.readString(input);
+
+        return new DetachedMessageModel(id, fromAddress, toAddress, subject, content, parsedContent,
+                sentTime != NO_DATE ? new Date(sentTime) : null);
+    }
+
+    public byte[] toBytes()
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(estimateSize());
+        DataOutputStream output = new DataOutputStream(bytes);
+        writeTo(output);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    public static DetachedMessageModel fromBytes(byte[] bytes)
+            throws IOException {
+        return readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    private int estimateSize() {
+        return 16 + BinaryFormat.estimateSize(this.id)
+                + BinaryFormat.estimateSize(this.fromAddress) + BinaryFormat.estimateSize(this.toAddress)
+                + BinaryFormat.estimateSize(this.subject)
+                + BinaryFormat.estimateSize(this.content) + BinaryFormat.estimateSize(this.parsedContent);
+    }
+
+    //endregion
+
+    //region Constructors
+
+    public DetachedMessageModel(String id,
+                                String fromAddress, String toAddress,
+                                String subject, String content, String parsedContent,
+                                Date sentDate) {
+        setId(id);
+
+        setFromAddress(fromAddress);
+        setToAddress(toAddress);
+
+        setSubject(subject);
+        setContent(content);
+        setParsedContent(parsedContent);
+
+        setSentDate(sentDate);
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,99 @@
+package com.gomentr.emailmanager.models;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A reply-tracked email waiting to be sent
+ */
+public class OutgoingNotification {
+
+    //region Variables
+
+    private String id;
+
+    private String to;
+    private String subject;
+    private String body;
+
+    //endregion
+
+    //region Setters and getters
+
+    public String getId() {
+        return this.id;
+    }
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getTo() {
+        return this.to;
+    }
+    public void setTo(String to) {
+        this.to = to;
+    }
+
+    public String getSubject() {
+        return this.subject;
+    }
+    public void setSubject(String subject) {
+        this.subject = subject;
+    }
+    public String getBody() {
+        return this.body;
+    }
+    public void setBody(String body) {
+        this.body = body;
+    }
+
+    //endregion
+
+    //region Serialization
+
+    /**
+     * Writes the notification in the encoding of the detached models,
+     * used by the outbox spool
+     */
+    public byte[] toBytes()
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + BinaryFormat.estimateSize(this.id)
+                + BinaryFormat.estimateSize(this.to) + BinaryFormat.estimateSize(this.subject)
+                + BinaryFormat.estimateSize(this.body));
+        DataOutputStream output = new DataOutputStream(bytes);
+        BinaryFormat.writeString(output, this.id);
+        BinaryFormat.writeString(output, this.to);
+        BinaryFormat.writeString(output, this.subject);
+        BinaryFormat.writeString(output, this.body);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    public static OutgoingNotification fromBytes(byte[] bytes)
+            throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+        String id = BinaryFormat.readString(input);
+        String to = BinaryFormat.readString(input);
+        String subject = BinaryFormat.readString(input);
+        String body = BinaryFormat.readString(input);
+        return new OutgoingNotification(id, to, subject, body);
+    }
+
+    //endregion
+
+    //region Constructors
+
+    public OutgoingNotification(String id, String to, String subject, String body) {
+        setId(id);
+
+        setTo(to);
+        setSubject(subject);
+        setBody(body);
+    }
+
+    //endregion
+
+}
@@ -2,6 +2,7 @@ package com.gomentr.emailmanager.models;
 
 import javax.mail.Address;
 import javax.mail.Message;
+import javax.mail.internet.InternetAddress;
 import java.util.Date;
 
 /**
@@ -9,6 +10,17 @@ import java.util.Date;
  */
 public class ReceivedMessageModel {
 
+    /**
+     * Downloads and parses the content of a lazy model on first access
+     */
+    public interface ContentLoader {
+
+        String loadContent(Message message) throws Exception;
+
+        String parseContent(String content);
+
+    }
+
     //region Variables
 
     private String id;
@@ -24,6 +36,13 @@ public class ReceivedMessageModel {
 
     private Message message;
 
+    /**
+     * Set while the content of a lazy model has not been loaded
+     */
+    private ContentLoader contentLoader;
+    private boolean contentLoaded;
+    private boolean parsedContentLoaded;
+
     //endregion
 
     //region Setters and getters
@@ -54,17 +73,39 @@ public class ReceivedMessageModel {
     public void setSubject(String subject) {
         this.subject = subject;
     }
-    public String getContent() {
+    /**
+     * A lazy model downloads its content on the first call,
+     * which must happen before the folder of the message is closed
+     */
+    public synchronized String getContent() {
+        try {
+            loadRawContent();
+        }
+        catch (Exception e) {
+            throw new IllegalStateException("The content of the message could not be loaded", e);
+        }
         return this.content;
     }
-    public void setContent(String content) {
+    public synchronized void setContent(String content) {
         this.content = content;
-    }
-    public String getParsedContent() {
+        this.contentLoaded = true;
+    }
+    /**
+     * A lazy model downloads and parses its content on the first call,
+     * which must happen before the folder of the message is closed
+     */
+    public synchronized String getParsedContent() {
+        try {
+            loadParsedContent();
+        }
+        catch (Exception e) {
+            throw new IllegalStateException("The content of the message could not be loaded", e);
+        }
         return this.parsedContent;
     }
-    public void setParsedContent(String parsedContent) {
+    public synchronized void setParsedContent(String parsedContent) {
         this.parsedContent = parsedContent;
+        this.parsedContentLoaded = true;
     }
 
 
@@ -82,6 +123,60 @@ public class ReceivedMessageModel {
         this.message = message;
     }
 
+    public synchronized boolean isContentLoaded() {
+        return this.contentLoader == null || this.parsedContentLoaded;
+    }
+
+    //endregion
+
+    //region Lazy content
+
+    /**
+     * Downloads and parses the content now if the model is lazy, so that it
+     * stays readable after the folder is closed or the message is moved
+     */
+    public synchronized ReceivedMessageModel loadContent()
+            throws Exception {
+        loadParsedContent();
+        this.contentLoader = null;
+        return this;
+    }
+
+    /**
+     * Returns a snapshot of the message that does not keep the javax.mail
+     * objects alive, loading the content first if the model is lazy
+     */
+    public synchronized DetachedMessageModel detach()
+            throws Exception {
+        loadContent();
+        return new DetachedMessageModel(this.id,
+                addressToString(this.fromAddress), addressToString(this.toAddress),
+                this.subject, this.content, this.parsedContent,
+                this.sentDate);
+    }
+
+    private static String addressToString(Address address) {
+        if (address == null)
+            return null;
+        if (address instanceof InternetAddress)
+            return ((InternetAddress) address).toUnicodeString();
+        return address.toString();
+    }
+
+    private void loadRawContent()
+            throws Exception {
+        if (this.contentLoader != null && !this.contentLoaded)
+            setContent(this.contentLoader.loadContent(this.message));
+    }
+
+    private void loadParsedContent()
+            throws Exception {
+        if (this.contentLoader != null && !this.parsedContentLoaded) {
+            loadRawContent();
+            setParsedContent(this.content != null ? this.contentLoader.parseContent(this.content) : null);
+        }
+    }
+
     //endregion
 
     //region Constructors
@@ -99,9 +194,30 @@ public class ReceivedMessageModel {
         setContent(content);
         setParsedContent(parsedContent);
 
+        setSentDate(sentDate);
         setMessage(message);
     }
 
+    /**
+     * Creates a lazy model, the content is loaded on first access
+     */
+    public ReceivedMessageModel(String id,
+                                Address fromAddress, Address toAddress,
+                                String subject, Date sentDate, Message message,
+                                ContentLoader contentLoader) {
+        setId(id);
+
+        setFromAddress(fromAddress);
+        setToAddress(toAddress);
+
+        setSubject(subject);
+
+        setSentDate(sentDate);
+        setMessage(message);
+
+        this.contentLoader = contentLoader;
+    }
+
     //endregion
 
 }
@@ -0,0 +1,66 @@
+package com.gomentr.emailmanager.models;
+
+/**
+ * The outcome of sending one notification
+ */
+public class SendResultModel {
+
+    /**
+     * Transient failures (4xx replies, dropped connections) may succeed when retried,
+     * permanent failures (5xx replies, invalid addresses) will not
+     */
+    public enum Status {
+        SENT,
+        TRANSIENT_FAILURE,
+        PERMANENT_FAILURE
+    }
+
+    //region Variables
+
+    private OutgoingNotification notification;
+
+    private Status status;
+    private Exception exception;
+
+    //endregion
+
+    //region Setters and getters
+
+    public OutgoingNotification getNotification() {
+        return this.notification;
+    }
+    public void setNotification(OutgoingNotification notification) {
+        this.notification = notification;
+    }
+
+    public Status getStatus() {
+        return this.status;
+    }
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+    public Exception getException() {
+        return this.exception;
+    }
+    public void setException(Exception exception) {
+        this.exception = exception;
+    }
+
+    public boolean isSent() {
+        return this.status == Status.SENT;
+    }
+
+    //endregion
+
+    //region Constructors
+
+    public SendResultModel(OutgoingNotification notification, Status status, Exception exception) {
+        setNotification(notification);
+
+        setStatus(status);
+        setException(exception);
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,43 @@
+package com.gomentr.emailmanager.models;
+
+/**
+ * The position reached by the email reader in a folder
+ * UIDs are only comparable while the folder keeps the same UIDVALIDITY
+ */
+public class UidCheckpoint {
+
+    //region Variables
+
+    private long uidValidity;
+    private long lastUid;
+
+    //endregion
+
+    //region Setters and getters
+
+    public long getUidValidity() {
+        return this.uidValidity;
+    }
+    public void setUidValidity(long uidValidity) {
+        this.uidValidity = uidValidity;
+    }
+
+    public long getLastUid() {
+        return this.lastUid;
+    }
+    public void setLastUid(long lastUid) {
+        this.lastUid = lastUid;
+    }
+
+    //endregion
+
+    //region Constructors
+
+    public UidCheckpoint(long uidValidity, long lastUid) {
+        setUidValidity(uidValidity);
+        setLastUid(lastUid);
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,12 @@
+package com.gomentr.emailmanager.parsers;
+
+/**
+ * Content parser that edits the content in place
+ * The stages of a pipeline share one buffer, so the content is not copied
+ * into a new String at every stage
+ */
+public interface BufferContentParser {
+
+    void parse(StringBuilder content);
+
+}
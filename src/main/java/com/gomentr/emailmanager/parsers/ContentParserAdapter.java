@@ -0,0 +1,37 @@
+package com.gomentr.emailmanager.parsers;
+
+/**
+ * Runs a String based content parser on a shared buffer
+ * Costs the two copies the parser needs, the other stages are not affected
+ */
+public class ContentParserAdapter implements BufferContentParser {
+
+    //region VARIABLES
+
+    protected final ContentParser parser;
+
+    //endregion
+
+    //region ADAPTER METHODS
+
+    public void parse(StringBuilder content) {
+        String parsedContent = parser.parse(content.toString());
+        content.setLength(0);
+        content.append(parsedContent);
+    }
+
+    public ContentParser getParser() {
+        return parser;
+    }
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    public ContentParserAdapter(ContentParser parser) {
+        this.parser = parser;
+    }
+
+    //endregion
+
+}
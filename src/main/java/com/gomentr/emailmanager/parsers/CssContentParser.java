@@ -1,18 +1,20 @@
 package com.gomentr.emailmanager.parsers;
 
+import java.util.regex.Pattern;
+
 /**
  * Created by Omar Addam on 2015-09-04.
  */
 public class CssContentParser implements ContentParser {
 
-    static final String CSS_TAG_PATTERN = "(?s)(<|&lt;)style.*(<|&lt;)/style(>|&gt)";
-    static final String CSS_ATTRIBUTES_PATTERN = "( class=\"[^\"]*\")|( style=\"[^\"]*\")";
+    static final Pattern CSS_TAG_PATTERN = Pattern.compile("(?s)(<|&lt;)style.*(<|&lt;)/style(>|&gt)");
+    static final Pattern CSS_ATTRIBUTES_PATTERN = Pattern.compile("( class=\"[^\"]*\")|( style=\"[^\"]*\")");
 
     public String parse(String content) {
 
         String parsedContent = content;
-        parsedContent = parsedContent.replaceAll(CSS_TAG_PATTERN, "");
-        parsedContent = parsedContent.replaceAll(CSS_ATTRIBUTES_PATTERN, "");
+        parsedContent = CSS_TAG_PATTERN.matcher(parsedContent).replaceAll("");
+        parsedContent = CSS_ATTRIBUTES_PATTERN.matcher(parsedContent).replaceAll("");
 
         return parsedContent;
     }
@@ -1,18 +1,20 @@
 package com.gomentr.emailmanager.parsers;
 
+import java.util.regex.Pattern;
+
 /**
  * Created by Omar Addam on 2015-09-04.
  */
 public class HtmlContentParser implements ContentParser {
 
-    static final String HEAD_TAG_WITH_CONTENT = "(?s)(<|&lt;)head.*(<|&lt;)/head(>|&gt)";
-    static final String HTML_TAGS_ONLY = "(<html[^>]*>)|(<body[^>]*>)|(<span[^>]*>)|(</html>)|(</body>)|(</span>)";
+    static final Pattern HEAD_TAG_WITH_CONTENT = Pattern.compile("(?s)(<|&lt;)head.*(<|&lt;)/head(>|&gt)");
+    static final Pattern HTML_TAGS_ONLY = Pattern.compile("(<html[^>]*>)|(<body[^>]*>)|(<span[^>]*>)|(</html>)|(</body>)|(</span>)");
 
     public String parse(String content) {
 
         String parsedContent = content;
-        parsedContent = parsedContent.replaceAll(HEAD_TAG_WITH_CONTENT, "");
-        parsedContent = parsedContent.replaceAll(HEAD_TAG_WITH_CONTENT, "");
+        parsedContent = HEAD_TAG_WITH_CONTENT.matcher(parsedContent).replaceAll("");
+        parsedContent = HEAD_TAG_WITH_CONTENT.matcher(parsedContent).replaceAll("");
 
         return parsedContent;
     }
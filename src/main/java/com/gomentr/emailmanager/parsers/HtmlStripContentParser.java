@@ -0,0 +1,189 @@
+package com.gomentr.emailmanager.parsers;
+
+/**
+ * Does the work of the Html, Gmail, Css and Script parsers in a single scan
+ * Removes the head, the gmail_extra tail, the style and script blocks and
+ * the class and style attributes, with the same rules as their patterns:
+ * a block goes from its first opening tag to its last closing tag, and
+ * tags escaped as &lt; are matched too
+ * The blocks are located first with plain index searches, then the content
+ * is compacted in place, skipping the blocks and the attributes
+ * The output differs from the old chain in one case only: a class or style
+ * attribute whose quotes lie on both sides of a script block, such as an
+ * unterminated class=" before the block. The old Css parser removed that
+ * attribute before the Script parser ran, so it could eat the opening tag
+ * or a quote of the block, while here the block is removed first
+ * ParserEquivalenceCheck in the benchmarks compares both on the corpus and
+ * on random inputs
+ */
+public class HtmlStripContentParser implements ContentParser, BufferContentParser {
+
+    static final String[] HEAD_OPEN = { "<head", "&lt;head" };
+    static final String[] HEAD_CLOSE = { "</head>", "</head&gt", "&lt;/head>", "&lt;/head&gt" };
+    static final String[] GMAIL_EXTRA_OPEN = { "<div class=\"gmail_extra\"", "&lt;div class=\"gmail_extra\"" };
+    static final String[] STYLE_OPEN = { "<style", "&lt;style" };
+    static final String[] STYLE_CLOSE = { "</style>", "</style&gt", "&lt;/style>", "&lt;/style&gt" };
+    static final String[] SCRIPT_OPEN = { "<script", "&lt;script" };
+    static final String[] SCRIPT_CLOSE = { "</script>", "</script&gt", "&lt;/script>", "&lt;/script&gt" };
+    static final String[] REMOVED_ATTRIBUTES = { " class=\"", " style=\"" };
+
+    public String parse(String content) {
+        StringBuilder parsedContent = new StringBuilder(content);
+        parse(parsedContent);
+        return parsedContent.toString();
+    }
+
+    public void parse(StringBuilder content) {
+
+        // Blocks removed, as [start, end) pairs, in the order the old parsers applied them
+        int[] removed = new int[6];
+        int removedCount = 0;
+
+        int end = content.length();
+        removedCount = findBlock(content, HEAD_OPEN, HEAD_CLOSE, end, removed, removedCount);
+
+        int gmailExtra = findFirst(content, GMAIL_EXTRA_OPEN, 0, end, removed, removedCount);
+        if (gmailExtra >= 0)
+            end = gmailExtra;
+
+        removedCount = findBlock(content, STYLE_OPEN, STYLE_CLOSE, end, removed, removedCount);
+        removedCount = findBlock(content, SCRIPT_OPEN, SCRIPT_CLOSE, end, removed, removedCount);
+
+        // The kept characters are moved to the front, the write position never passes the read position
+        int write = 0;
+        boolean quotesLeft = true;
+        int i = 0;
+        while (i < end) {
+            int skipTo = findRemovedEnd(i, removed, removedCount);
+            if (skipTo > i) {
+                i = skipTo;
+                continue;
+            }
+
+            char c = content.charAt(i);
+            if (c == ' ' && quotesLeft && startsWithAny(content, REMOVED_ATTRIBUTES, i, end)) {
+                int closingQuote = findChar(content, '"', i + REMOVED_ATTRIBUTES[0].length(), end, removed, removedCount);
+                if (closingQuote >= 0) {
+                    i = closingQuote + 1;
+                    continue;
+                }
+                // Without any quote left no other attribute can match either
+                quotesLeft = false;
+            }
+
+            content.setCharAt(write++, c);
+            i++;
+        }
+
+        content.setLength(write);
+    }
+
+    /**
+     * Finds the block going from the first opening tag to the last closing tag
+     * after it, outside the blocks already found, and adds it to the removed blocks
+     */
+    private int findBlock(StringBuilder content, String[] openTags, String[] closeTags, int end,
+                          int[] removed, int removedCount) {
+        int open = findFirst(content, openTags, 0, end, removed, removedCount);
+        if (open < 0)
+            return removedCount;
+        int openEnd = open + matchLength(content, openTags, open);
+
+        int close = findLast(content, closeTags, openEnd, end, removed, removedCount);
+        if (close < 0)
+            return removedCount;
+
+        removed[removedCount * 2] = open;
+        removed[removedCount * 2 + 1] = close + matchLength(content, closeTags, close);
+        return removedCount + 1;
+    }
+
+    /**
+     * Returns the first position in [from, end) where one of the tags starts
+     * and lies entirely outside the removed blocks
+     */
+    private int findFirst(StringBuilder content, String[] tags, int from, int end, int[] removed, int removedCount) {
+        int best = -1;
+        for (String tag : tags) {
+            int index = content.indexOf(tag, from);
+            while (index >= 0 && index + tag.length() <= end && overlapsRemoved(index, index + tag.length(), removed, removedCount))
+                index = content.indexOf(tag, index + 1);
+            if (index >= 0 && index + tag.length() <= end && (best < 0 || index < best))
+                best = index;
+        }
+        return best;
+    }
+
+    /**
+     * Returns the last position at or after from where one of the tags starts,
+     * ends before end and lies entirely outside the removed blocks
+     */
+    private int findLast(StringBuilder content, String[] tags, int from, int end, int[] removed, int removedCount) {
+        int best = -1;
+        for (String tag : tags) {
+            int index = content.lastIndexOf(tag, end - tag.length());
+            while (index >= from && overlapsRemoved(index, index + tag.length(), removed, removedCount))
+                index = content.lastIndexOf(tag, index - 1);
+            if (index >= from && index > best)
+                best = index;
+        }
+        return best;
+    }
+
+    /**
+     * Returns the position of the next character outside the removed blocks, or -1
+     */
+    private int findChar(StringBuilder content, char c, int from, int end, int[] removed, int removedCount) {
+        int index = from;
+        while (index < end) {
+            if (content.charAt(index) == c) {
+                int skipTo = findRemovedEnd(index, removed, removedCount);
+                if (skipTo == index)
+                    return index;
+                index = skipTo;
+            }
+            else
+                index++;
+        }
+        return -1;
+    }
+
+    private int findRemovedEnd(int index, int[] removed, int removedCount) {
+        for (int block = 0; block < removedCount; block++) {
+            if (index >= removed[block * 2] && index < removed[block * 2 + 1])
+                return removed[block * 2 + 1];
+        }
+        return index;
+    }
+
+    private boolean overlapsRemoved(int start, int end, int[] removed, int removedCount) {
+        for (int block = 0; block < removedCount; block++) {
+            if (start < removed[block * 2 + 1] && end > removed[block * 2])
+                return true;
+        }
+        return false;
+    }
+
+    private boolean startsWithAny(StringBuilder content, String[] tags, int index, int end) {
+        return matchLength(content, tags, index) > 0 && index + matchLength(content, tags, index) <= end;
+    }
+
+    private int matchLength(StringBuilder content, String[] tags, int index) {
+        for (String tag : tags) {
+            if (regionMatches(content, index, tag))
+                return tag.length();
+        }
+        return 0;
+    }
+
+    private boolean regionMatches(StringBuilder content, int index, String tag) {
+        if (index + tag.length() > content.length())
+            return false;
+        for (int i = 0; i < tag.length(); i++) {
+            if (content.charAt(index + i) != tag.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,173 @@
+package com.gomentr.emailmanager.parsers;
+
+import com.gomentr.emailmanager.metrics.EmailMetricsListener;
+import com.gomentr.emailmanager.metrics.NoOpMetricsListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered chain of content parsers applied to the content of a message
+ * Built once and shared, parsing threads always see a consistent list of
+ * stages while the stages are being added, removed or reordered: every
+ * change builds a new list and publishes it at once
+ */
+public class ParserPipeline {
+
+    //region VARIABLES
+
+    /**
+     * Replaced as a whole on every change, never modified in place
+     */
+    private volatile List<Stage> stages = Collections.emptyList();
+
+    //endregion
+
+    //region PIPELINE METHODS
+
+    /**
+     * Runs the content through every stage, in order
+     * The content is copied into one buffer that all the stages share
+     */
+    public String parse(String content) {
+        return parse(content, NoOpMetricsListener.INSTANCE);
+    }
+
+    /**
+     * Runs the content through every stage, timing each one
+     */
+    public String parse(String content, EmailMetricsListener metricsListener) {
+        StringBuilder parsedContent = new StringBuilder(content);
+        parse(parsedContent, metricsListener);
+        return parsedContent.toString();
+    }
+
+    public void parse(StringBuilder content) {
+        parse(content, NoOpMetricsListener.INSTANCE);
+    }
+
+    /**
+     * Runs the buffer through every stage, in order
+     * Stages that only parse Strings run through the ContentParserAdapter
+     * created when they were added
+     */
+    public void parse(StringBuilder content, EmailMetricsListener metricsListener) {
+        for (Stage stage : stages) {
+            long startTime = metricsListener.startTime();
+            stage.bufferParser.parse(content);
+            metricsListener.recordParserTime(stage.parser, startTime);
+        }
+    }
+
+    public synchronized ParserPipeline addParser(ContentParser parser) {
+        List<Stage> newStages = new ArrayList<Stage>(stages);
+        newStages.add(new Stage(parser));
+        publish(newStages);
+        return this;
+    }
+
+    public synchronized ParserPipeline addParser(int index, ContentParser parser) {
+        List<Stage> newStages = new ArrayList<Stage>(stages);
+        newStages.add(index, new Stage(parser));
+        publish(newStages);
+        return this;
+    }
+
+    public synchronized boolean removeParser(ContentParser parser) {
+        List<Stage> newStages = new ArrayList<Stage>(stages);
+        for (int i = 0; i < newStages.size(); i++) {
+            if (newStages.get(i).parser.equals(parser)) {
+                newStages.remove(i);
+                publish(newStages);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes every stage of the given type
+     */
+    public synchronized boolean removeParser(Class<? extends ContentParser> parserClass) {
+        List<Stage> newStages = new ArrayList<Stage>(stages.size());
+        for (Stage stage : stages) {
+            if (!parserClass.isInstance(stage.parser))
+                newStages.add(stage);
+        }
+        if (newStages.size() == stages.size())
+            return false;
+        publish(newStages);
+        return true;
+    }
+
+    /**
+     * Moves the stage at one position to another position
+     */
+    public synchronized void moveParser(int fromIndex, int toIndex) {
+        List<Stage> newStages = new ArrayList<Stage>(stages);
+        Stage stage = newStages.remove(fromIndex);
+        newStages.add(toIndex, stage);
+        publish(newStages);
+    }
+
+    /**
+     * Returns the stages in the order they are applied
+     */
+    public List<ContentParser> getParsers() {
+        List<Stage> currentStages = stages;
+        List<ContentParser> parsers = new ArrayList<ContentParser>(currentStages.size());
+        for (Stage stage : currentStages)
+            parsers.add(stage.parser);
+        return Collections.unmodifiableList(parsers);
+    }
+
+    /**
+     * Creates the pipeline used by the email reader by default
+     * HtmlStripContentParser stands for the Html, Gmail, Css and Script
+     * parsers, which remain available for custom pipelines
+     */
+    public static ParserPipeline createDefault() {
+        return new ParserPipeline(
+                new TextContentParser(),
+                new HtmlStripContentParser(),
+                new QuoteContentParser());
+    }
+
+    private void publish(List<Stage> newStages) {
+        stages = Collections.unmodifiableList(newStages);
+    }
+
+    //endregion
+
+    //region STAGE
+
+    /**
+     * A parser and the buffer parser that runs it, resolved once when it is added
+     */
+    private static final class Stage {
+
+        private final ContentParser parser;
+        private final BufferContentParser bufferParser;
+
+        Stage(ContentParser parser) {
+            this.parser = parser;
+            this.bufferParser = parser instanceof BufferContentParser
+                    ? (BufferContentParser) parser : new ContentParserAdapter(parser);
+        }
+    }
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    public ParserPipeline(ContentParser... parsers) {
+        List<Stage> newStages = new ArrayList<Stage>(parsers.length);
+        for (ContentParser parser : parsers)
+            newStages.add(new Stage(parser));
+        publish(newStages);
+    }
+
+    //endregion
+
+}
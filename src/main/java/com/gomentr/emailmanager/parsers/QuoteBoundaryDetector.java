@@ -0,0 +1,359 @@
+package com.gomentr.emailmanager.parsers;
+
+import java.util.Arrays;
+
+/**
+ * Finds the headers that introduce the quoted parts of a reply, scanning line by line
+ * Recognizes the lines QuoteContentParser used to match with regular expressions:
+ * "On ... wrote:" (also when wrapped on two lines), "-----Original Message-----"
+ * and blocks of From/Sent/Date/To/Subject/Cc headers, on consecutive lines or
+ * on a single line as in HTML bodies
+ * Consecutive header lines only make a block when the first one is a From
+ * header, or when they follow a dashed line, an "Original Message" line or an
+ * "On ... wrote:" header, so a reply written as "Date: tomorrow" is kept
+ * A header ends with the line on which it is recognized, a block of header
+ * lines with its last header line
+ * Every character is examined a bounded number of times, and the scan gives up
+ * when its character or time budget runs out
+ */
+public class QuoteBoundaryDetector {
+
+    /** the first DATE_LABELS labels are the ones of the headers that carry a date */
+    static final String[] HEADER_LABELS = { "sent", "date", "time", "from", "to", "subject", "cc", "bcc" };
+    static final int DATE_LABELS = 3;
+    static final int FROM_LABEL = 3;
+    static final String WROTE = "wrote:";
+    static final String ORIGINAL_MESSAGE = "original message";
+
+    /** the number of headers that mark a header block written on a single line,
+     * a date header counts as one and the address or subject headers count by pairs */
+    static final int SINGLE_LINE_HEADERS = 2;
+    /** the number of consecutive header lines that mark a header block */
+    static final int HEADER_BLOCK_LINES = 2;
+
+    //region VARIABLES
+
+    /**
+     * The scan stops after examining this many characters, zero means no limit
+     */
+    protected final long maxScanChars;
+    /**
+     * The scan stops after running for this long, zero means no limit
+     */
+    protected final long maxScanNanos;
+
+    //endregion
+
+    //region DETECTOR METHODS
+
+    /**
+     * Returns the position where the quoted part begins, or -1
+     */
+    public int findBoundary(CharSequence content) {
+        return newScanner().scan(content, content.length(), true);
+    }
+
+    /**
+     * Returns every header of the content as [start, end) pairs, in order
+     * The scan goes on after each header from its end, as if the header
+     * had been removed, so the content is scanned once
+     */
+    public int[] findHeaders(CharSequence content) {
+        Scanner scanner = newScanner();
+        int[] headers = new int[8];
+        int headerCount = 0;
+        int header;
+        while ((header = scanner.scan(content, content.length(), true)) >= 0) {
+            if (headerCount * 2 == headers.length)
+                headers = Arrays.copyOf(headers, headers.length * 2);
+            headers[headerCount * 2] = header;
+            headers[headerCount * 2 + 1] = scanner.getHeaderEnd();
+            headerCount++;
+            scanner.resume(scanner.getHeaderEnd());
+        }
+        return Arrays.copyOf(headers, headerCount * 2);
+    }
+
+    /**
+     * Creates a scanner that can be fed a growing text
+     */
+    public Scanner newScanner() {
+        return new Scanner();
+    }
+
+    //endregion
+
+    //region SCANNER
+
+    /**
+     * Scans the complete lines of a text as it grows
+     * Not thread safe, each text needs its own scanner
+     */
+    public class Scanner {
+
+        private int lineStart;
+        private long scannedChars;
+        private long startNanos;
+        private boolean exhausted;
+
+        private int boundary = -1;
+        private int headerEnd = -1;
+        private boolean headerBlock;
+        private int headerRunStart = -1;
+        private int headerRunLines;
+        private int leadInLineStart = -1;
+        private int onLineStart = -1;
+        private boolean afterQuoteHeader;
+
+        /**
+         * Scans the lines of text that end before the end position
+         * The last line is scanned too when the text is complete
+         * Returns the boundary once found, or -1
+         */
+        public int scan(CharSequence text, int end, boolean complete) {
+            if (startNanos == 0 && maxScanNanos > 0)
+                startNanos = System.nanoTime();
+
+            while ((boundary < 0 || headerBlock) && !exhausted && lineStart < end) {
+                int lineEnd = indexOf(text, '\n', lineStart, end);
+                if (lineEnd < 0) {
+                    if (!complete)
+                        break;
+                    lineEnd = end;
+                }
+
+                scanLine(text, lineStart, lineEnd);
+                scannedChars += lineEnd + 1 - lineStart;
+                lineStart = lineEnd + 1;
+
+                if ((maxScanChars > 0 && scannedChars > maxScanChars)
+                        || (maxScanNanos > 0 && System.nanoTime() - startNanos > maxScanNanos))
+                    exhausted = true;
+            }
+            return boundary;
+        }
+
+        /**
+         * Returns the end of the line on which the header found ends, or -1
+         */
+        public int getHeaderEnd() {
+            return headerEnd;
+        }
+
+        /**
+         * Looks for the next header from a position, usually the end of the
+         * previous one, the budget already used is kept, and so is whether the
+         * previous header introduces header lines
+         */
+        public void resume(int position) {
+            lineStart = position;
+            boundary = -1;
+            headerEnd = -1;
+            headerBlock = false;
+            headerRunStart = -1;
+            headerRunLines = 0;
+            leadInLineStart = -1;
+            onLineStart = -1;
+        }
+
+        /**
+         * True when the budget ran out before the end of the text
+         */
+        public boolean isExhausted() {
+            return exhausted;
+        }
+
+        private void scanLine(CharSequence text, int start, int end) {
+            if (end > start && text.charAt(end - 1) == '\r')
+                end--;
+            int trimmed = skipWhitespace(text, start, end);
+
+            // The header lines that follow a block belong to it
+            if (headerBlock) {
+                if (headerLabel(text, trimmed < end && text.charAt(trimmed) == '*' ? trimmed + 1 : trimmed, end) >= 0)
+                    headerEnd = end;
+                else
+                    headerBlock = false;
+                return;
+            }
+
+            // On Mon, Jun 7, 2010 at 8:50 PM, Simon wrote:
+            int wrote = lastIndexOfIgnoreCase(text, WROTE, trimmed, end);
+            if (wrote >= 0) {
+                int on = firstOnWord(text, trimmed, wrote);
+                if (on >= 0) {
+                    boundary = on;
+                    headerEnd = end;
+                    afterQuoteHeader = true;
+                    return;
+                }
+                // The "On ..." part was wrapped on the previous line
+                if (onLineStart >= 0) {
+                    boundary = onLineStart;
+                    headerEnd = end;
+                    afterQuoteHeader = true;
+                    return;
+                }
+            }
+            onLineStart = startsWithOnWord(text, trimmed, end) && containsDigit(text, trimmed, end) ? trimmed : -1;
+
+            // -----Original Message----- and plain dashed lines
+            if (trimmed < end && text.charAt(trimmed) == '-') {
+                int afterDashes = skipChar(text, '-', trimmed, end);
+                int afterSpace = skipWhitespace(text, afterDashes, end);
+                if (regionMatchesIgnoreCase(text, afterSpace, ORIGINAL_MESSAGE, end)) {
+                    boundary = trimmed;
+                    headerEnd = end;
+                    afterQuoteHeader = true;
+                    return;
+                }
+                if (afterDashes - trimmed >= 2 && skipWhitespace(text, afterDashes, end) == end) {
+                    leadInLineStart = trimmed;
+                    headerRunStart = -1;
+                    headerRunLines = 0;
+                    return;
+                }
+            }
+
+            // From: ... Sent: ... To: ... Subject: ... on one line
+            int firstLabel = -1;
+            int dateLabels = 0;
+            int otherLabels = 0;
+            for (int i = trimmed; i < end && dateLabels + otherLabels / 2 < SINGLE_LINE_HEADERS; i++) {
+                int label = isWordStart(text, i, trimmed) ? headerLabel(text, i, end) : -1;
+                if (label >= 0) {
+                    if (firstLabel < 0)
+                        firstLabel = i;
+                    if (label < DATE_LABELS)
+                        dateLabels++;
+                    else
+                        otherLabels++;
+                }
+            }
+            if (dateLabels + otherLabels / 2 >= SINGLE_LINE_HEADERS) {
+                boundary = firstLabel;
+                headerEnd = end;
+                return;
+            }
+
+            // From:, Sent:, To:, Subject: on consecutive lines, starting with From:
+            // or following a lead-in line or a quote header
+            int labelStart = trimmed < end && text.charAt(trimmed) == '*' ? trimmed + 1 : trimmed;
+            int label = headerLabel(text, labelStart, end);
+            if (label >= 0 && (headerRunStart >= 0 || label == FROM_LABEL || leadInLineStart >= 0 || afterQuoteHeader)) {
+                if (headerRunStart < 0)
+                    headerRunStart = leadInLineStart >= 0 ? leadInLineStart : trimmed;
+                headerRunLines++;
+                if (headerRunLines >= HEADER_BLOCK_LINES) {
+                    boundary = headerRunStart;
+                    headerEnd = end;
+                    headerBlock = true;
+                }
+            }
+            else {
+                headerRunStart = -1;
+                headerRunLines = 0;
+            }
+            leadInLineStart = -1;
+            // Blank lines may separate the quote header from the header lines
+            if (trimmed < end)
+                afterQuoteHeader = false;
+        }
+    }
+
+    //endregion
+
+    //region CHARACTER HELPERS
+
+    /**
+     * Returns the index in HEADER_LABELS of the label followed by a colon at a position, or -1
+     */
+    static int headerLabel(CharSequence text, int index, int end) {
+        for (int label = 0; label < HEADER_LABELS.length; label++) {
+            int colon = index + HEADER_LABELS[label].length();
+            if (colon < end && text.charAt(colon) == ':' && regionMatchesIgnoreCase(text, index, HEADER_LABELS[label], end))
+                return label;
+        }
+        return -1;
+    }
+
+    static int firstOnWord(CharSequence text, int start, int end) {
+        for (int i = start; i + 2 < end; i++) {
+            if (isWordStart(text, i, start) && startsWithOnWord(text, i, end))
+                return i;
+        }
+        return -1;
+    }
+
+    static boolean startsWithOnWord(CharSequence text, int index, int end) {
+        return index + 2 < end
+                && (text.charAt(index) == 'O' || text.charAt(index) == 'o')
+                && (text.charAt(index + 1) == 'n' || text.charAt(index + 1) == 'N')
+                && Character.isWhitespace(text.charAt(index + 2));
+    }
+
+    static boolean isWordStart(CharSequence text, int index, int lineStart) {
+        return Character.isLetter(text.charAt(index))
+                && (index == lineStart || !Character.isLetterOrDigit(text.charAt(index - 1)));
+    }
+
+    static boolean containsDigit(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (Character.isDigit(text.charAt(i)))
+                return true;
+        }
+        return false;
+    }
+
+    static int lastIndexOfIgnoreCase(CharSequence text, String word, int start, int end) {
+        for (int i = end - word.length(); i >= start; i--) {
+            if (regionMatchesIgnoreCase(text, i, word, end))
+                return i;
+        }
+        return -1;
+    }
+
+    static boolean regionMatchesIgnoreCase(CharSequence text, int index, String word, int end) {
+        if (index + word.length() > end)
+            return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.toLowerCase(text.charAt(index + i)) != word.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    static int indexOf(CharSequence text, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == c)
+                return i;
+        }
+        return -1;
+    }
+
+    static int skipWhitespace(CharSequence text, int start, int end) {
+        int i = start;
+        while (i < end && Character.isWhitespace(text.charAt(i)))
+            i++;
+        return i;
+    }
+
+    static int skipChar(CharSequence text, char c, int start, int end) {
+        int i = start;
+        while (i < end && text.charAt(i) == c)
+            i++;
+        return i;
+    }
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    public QuoteBoundaryDetector(long maxScanChars, long maxScanNanos) {
+        this.maxScanChars = maxScanChars;
+        this.maxScanNanos = maxScanNanos;
+    }
+
+    //endregion
+
+}
@@ -1,71 +1,140 @@
 package com.gomentr.emailmanager.parsers;
 
-import java.util.regex.Pattern;
-
 /**
  * Created by Omar Addam on 2015-09-04.
  */
-public class QuoteContentParser implements ContentParser {
+public class QuoteContentParser implements ContentParser, BufferContentParser {
 
     /** general html tag for quotes */
-    static final String BLOCKQUOTE_TAG_WITH_CONTENT = "(?s)(<|&lt;)blockquote.*(<|&lt;)/blockquote(>|&gt)";
-
-    /** general spacers for time and date */
-    static final String QUOTE_SPACERS = "[\\s,/\\.\\-]";
-    /** matches times */
-    static final String TIME_PATTERN = "(?:[0-2])?[0-9]:[0-5][0-9](?::[0-5][0-9])?(?:(?:\\s)?[AP]M)?";
-    /** matches day of the week */
-    static final String DAY_PATTERN = "(?:(?:Mon(?:day)?)|(?:Tue(?:sday)?)|(?:Wed(?:nesday)?)|(?:Thu(?:rsday)?)|(?:Fri(?:day)?)|(?:Sat(?:urday)?)|(?:Sun(?:day)?))";
-    /** matches months (numeric and text) */
-    static final String MONTH_PATTERN = "(?:(?:Jan(?:uary)?)|(?:Feb(?:uary)?)|(?:Mar(?:ch)?)|(?:Apr(?:il)?)|(?:May)|(?:Jun(?:e)?)|(?:Jul(?:y)?)" +
-            "|(?:Aug(?:ust)?)|(?:Sep(?:tember)?)|(?:Oct(?:ober)?)|(?:Nov(?:ember)?)|(?:Dec(?:ember)?)|(?:[0-1]?[0-9]))";
-    /** matches years (only 1000's and 2000's, because we are matching emails) */
-    static final String YEAR_PATTERN = "(?:[1-2]?[0-9])[0-9][0-9]";
-
-    /** matches day of the month (number and st, nd, rd, th) */
-    static final String DAY_OF_MONTH_PATTERN = "[0-3]?[0-9]" + QUOTE_SPACERS + "*(?:(?:th)|(?:st)|(?:nd)|(?:rd))?";
-    /** matches a full date */
-    static final String DATE_PATTERN  = "(?:" + DAY_PATTERN + QUOTE_SPACERS + "+)?(?:(?:" + DAY_OF_MONTH_PATTERN + QUOTE_SPACERS + "+" + MONTH_PATTERN + ")|" +
-            "(?:" + MONTH_PATTERN + QUOTE_SPACERS + "+" + DAY_OF_MONTH_PATTERN + "))" +
-            QUOTE_SPACERS + "+" + YEAR_PATTERN;
-    /** matches a date and time combo (in either order) */
-    static final String DATE_TIME_PATTERN = "((?:" + DATE_PATTERN + "[\\s,]*((?:(?:at)|(?:@))?\\s*" + TIME_PATTERN + "))?|" +
-            "(?:" + TIME_PATTERN + "[\\s,]*(?:on)?\\s*"+ DATE_PATTERN + "))";
-
-    public String parse(String content) {
+    static final String[] BLOCKQUOTE_OPEN = { "<blockquote", "&lt;blockquote" };
+    static final String[] BLOCKQUOTE_CLOSE = { "</blockquote>", "</blockquote&gt", "&lt;/blockquote>", "&lt;/blockquote&gt" };
 
-        String parsedContent = content;
-        parsedContent = parsedContent.replaceAll(BLOCKQUOTE_TAG_WITH_CONTENT, "");
+    /** default budget of the quote detection for one message, a time budget
+     * makes the output depend on the load of the machine so it is opt-in */
+    static final long DEFAULT_MAX_SCAN_CHARS = 1024 * 1024;
+    static final long DEFAULT_MAX_SCAN_NANOS = 0;
 
+    private final QuoteBoundaryDetector quoteBoundaryDetector;
 
-        /** matches a leading line such as
-         * ----Original Message----
-         * or simply
-         * ------------------------
-         */
-        String leadInLine    = "-+\\s*(?:Original(?:\\sMessage)?)?\\s*-+";
+    public String parse(String content) {
+        StringBuilder parsedContent = new StringBuilder(content);
+        parse(parsedContent);
+        return parsedContent.toString();
+    }
 
-        /** matches a header line indicating the date */
-        String dateLine    = "(?:(?:date)|(?:sent)|(?:time)):\\s*"+ DATE_TIME_PATTERN + ".*";
+    public void parse(StringBuilder content) {
 
-        /** matches a subject or address line */
-        String subjectOrAddressLine    = "((?:from)|(?:subject)|(?:b?cc)|(?:to)):.*((?:from)|(?:subject)|(?:b?cc)|(?:to)):.*";
+        removeBlockquote(content);
 
-        /** matches gmail style quoted text beginning, i.e.
+        /** every quote header is removed up to the end of its line:
          * On Mon Jun 7, 2010 at 8:50 PM, Simon wrote:
+         * -----Original Message-----
+         * From: / Sent: / To: / Subject: header blocks
+         * The headers are found in one scan, then the rest is compacted once
          */
-        String gmailQuotedTextBeginning = "(On\\s+" + DATE_TIME_PATTERN + ".*wrote:)";
+        int[] headers = quoteBoundaryDetector.findHeaders(content);
+        if (headers.length == 0)
+            return;
+        includeLineBreaks(content, headers);
+
+        int write = headers[0];
+        for (int header = 0; header < headers.length; header += 2) {
+            int keepEnd = header + 2 < headers.length ? headers[header + 2] : content.length();
+            for (int read = headers[header + 1]; read < keepEnd; read++)
+                content.setCharAt(write++, content.charAt(read));
+        }
+        content.setLength(write);
+    }
 
+    /**
+     * Widens the headers that take whole lines to their line break, so no empty
+     * line is left in their place
+     * A header at the end of the content takes the line break before it instead,
+     * a header that starts after some text on its line only loses its text
+     */
+    static void includeLineBreaks(CharSequence content, int[] headers) {
+        int previousEnd = 0;
+        for (int header = 0; header < headers.length; header += 2) {
+            int start = headers[header];
+            int end = headers[header + 1];
+
+            int lineStart = start;
+            while (lineStart > previousEnd && content.charAt(lineStart - 1) != '\n'
+                    && Character.isWhitespace(content.charAt(lineStart - 1)))
+                lineStart--;
+            if (lineStart == 0 || content.charAt(lineStart - 1) == '\n') {
+                if (end < content.length() && content.charAt(end) == '\r')
+                    end++;
+                if (end < content.length() && content.charAt(end) == '\n') {
+                    start = lineStart;
+                    end++;
+                }
+                else if (end == content.length()) {
+                    // The headers right before take their lines with this one,
+                    // so they give back their line break for the one before them
+                    start = lineStart;
+                    int first = header;
+                    while (first > 0 && headers[first - 1] == start) {
+                        first -= 2;
+                        start = headers[first];
+                    }
+                    int keepEnd = first > 0 ? headers[first - 1] : 0;
+                    if (start > keepEnd && content.charAt(start - 1) == '\n')
+                        start--;
+                    if (start > keepEnd && content.charAt(start - 1) == '\r')
+                        start--;
+                    for (int joined = first; joined < header; joined++)
+                        headers[joined] = start;
+                }
+            }
+
+            headers[header] = start;
+            headers[header + 1] = end;
+            previousEnd = end;
+        }
+    }
 
-        /** matches the start of a quoted section of an email */
-        Pattern QUOTED_TEXT_BEGINNING = Pattern.compile("(?i)(?:(?:" + leadInLine + ")?" +
-                        "(?:(?:" +subjectOrAddressLine + ")|(?:" + dateLine + ")){2,6})|(?:" + gmailQuotedTextBeginning + ")"
-        );
+    /**
+     * Removes everything from the first opening blockquote tag to the last closing one
+     */
+    static void removeBlockquote(StringBuilder content) {
+        int open = -1;
+        int openLength = 0;
+        for (String tag : BLOCKQUOTE_OPEN) {
+            int index = content.indexOf(tag);
+            if (index >= 0 && (open < 0 || index < open)) {
+                open = index;
+                openLength = tag.length();
+            }
+        }
+        if (open < 0)
+            return;
+
+        int close = -1;
+        int closeLength = 0;
+        for (String tag : BLOCKQUOTE_CLOSE) {
+            int index = content.lastIndexOf(tag);
+            if (index >= open + openLength && index > close) {
+                close = index;
+                closeLength = tag.length();
+            }
+        }
+        if (close < 0)
+            return;
+
+        content.delete(open, close + closeLength);
+    }
 
-        String patternString = "(" + QUOTED_TEXT_BEGINNING.toString() + ").*";
-        parsedContent = parsedContent.replaceAll(patternString, "");
+    public QuoteContentParser() {
+        this(DEFAULT_MAX_SCAN_CHARS, DEFAULT_MAX_SCAN_NANOS);
+    }
 
-        return parsedContent;
+    /**
+     * The detection of the quote headers stops after examining maxScanChars
+     * characters or running for maxScanNanos, zero means no limit
+     */
+    public QuoteContentParser(long maxScanChars, long maxScanNanos) {
+        this.quoteBoundaryDetector = new QuoteBoundaryDetector(maxScanChars, maxScanNanos);
     }
 
 }
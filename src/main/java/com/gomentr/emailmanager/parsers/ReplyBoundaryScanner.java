@@ -0,0 +1,83 @@
+package com.gomentr.emailmanager.parsers;
+
+/**
+ * Watches a content while it is being read for the point after which the
+ * default pipeline keeps nothing: the gmail_extra block HtmlStripContentParser cuts
+ * A marker on a line TextContentParser removes does not count, and nothing
+ * counts once a head tag was seen, since the head block runs to the last
+ * closing tag of the whole content
+ * Each call only examines what was appended since the previous one, so a
+ * reader can stop downloading as soon as the reply text is complete
+ * Not thread safe, each content needs its own scanner
+ */
+public class ReplyBoundaryScanner {
+
+    //region VARIABLES
+
+    private final int markerOverlap;
+
+    private int searchStart;
+    private int boundary = -1;
+    private boolean headSeen;
+
+    //endregion
+
+    //region SCANNER METHODS
+
+    /**
+     * Scans the characters appended since the last call
+     * Returns the position of the boundary once found, or -1
+     */
+    public int scan(StringBuilder content) {
+        if (boundary >= 0 || headSeen)
+            return boundary;
+
+        int marker = -1;
+        for (String tag : HtmlStripContentParser.GMAIL_EXTRA_OPEN) {
+            int index = content.indexOf(tag, searchStart);
+            while (index >= 0 && isQuotedLine(content, index))
+                index = content.indexOf(tag, index + 1);
+            if (index >= 0 && (marker < 0 || index < marker))
+                marker = index;
+        }
+        for (String tag : HtmlStripContentParser.HEAD_OPEN) {
+            int index = content.indexOf(tag, searchStart);
+            if (index >= 0 && (marker < 0 || index < marker))
+                headSeen = true;
+        }
+        // A tag may be split between this call and the next one
+        searchStart = Math.max(searchStart, content.length() - markerOverlap);
+
+        if (marker >= 0 && !headSeen)
+            boundary = marker;
+        return boundary;
+    }
+
+    /**
+     * Returns the boundary found so far, or -1
+     */
+    public int getBoundary() {
+        return boundary;
+    }
+
+    private static boolean isQuotedLine(StringBuilder content, int index) {
+        int lineStart = content.lastIndexOf("\n", index) + 1;
+        return content.charAt(lineStart) == '>';
+    }
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    public ReplyBoundaryScanner() {
+        int longestTag = 0;
+        for (String tag : HtmlStripContentParser.GMAIL_EXTRA_OPEN)
+            longestTag = Math.max(longestTag, tag.length());
+        for (String tag : HtmlStripContentParser.HEAD_OPEN)
+            longestTag = Math.max(longestTag, tag.length());
+        this.markerOverlap = longestTag - 1;
+    }
+
+    //endregion
+
+}
@@ -1,16 +1,18 @@
 package com.gomentr.emailmanager.parsers;
 
+import java.util.regex.Pattern;
+
 /**
  * Created by Omar Addam on 2015-09-04.
  */
 public class ScriptContentParser implements ContentParser {
 
-    static final String SCRIPT_TAG_PATTERN = "(?s)(<|&lt;)script.*(<|&lt;)/script(>|&gt)";
+    static final Pattern SCRIPT_TAG_PATTERN = Pattern.compile("(?s)(<|&lt;)script.*(<|&lt;)/script(>|&gt)");
 
     public String parse(String content) {
 
         String parsedContent = content;
-        parsedContent = parsedContent.replaceAll(SCRIPT_TAG_PATTERN, "");
+        parsedContent = SCRIPT_TAG_PATTERN.matcher(parsedContent).replaceAll("");
 
         return parsedContent;
     }
@@ -3,23 +3,42 @@ package com.gomentr.emailmanager.parsers;
 /**
  * Created by Omar Addam on 2015-09-04.
  */
-public class TextContentParser implements ContentParser {
+public class TextContentParser implements ContentParser, BufferContentParser {
 
     public String parse(String content) {
-        String parsedContent = "";
+        StringBuilder parsedContent = new StringBuilder(content);
+        parse(parsedContent);
+        return parsedContent.toString();
+    }
 
-        String[] lines = content.split("\n");
-        for (String line : lines) {
-            if (line == "")
-                continue;
-            if (!line.startsWith(">"))
-                parsedContent += line + "\n";
-        }
+    /**
+     * Removes the empty lines and the lines starting with '>',
+     * moving the remaining lines to the front of the buffer
+     */
+    public void parse(StringBuilder content) {
+        int end = content.length();
+        while (end > 0 && content.charAt(end - 1) == '\n')
+            end--;
 
-        if (parsedContent.length() > 0 && parsedContent.charAt(parsedContent.length()-1)=='\n')
-            parsedContent = parsedContent.substring(0, parsedContent.length() - 1);
+        int write = 0;
+        boolean firstLine = true;
+        int lineStart = 0;
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && content.charAt(lineEnd) != '\n')
+                lineEnd++;
+
+            if (lineEnd > lineStart && content.charAt(lineStart) != '>') {
+                if (!firstLine)
+                    content.setCharAt(write++, '\n');
+                firstLine = false;
+                for (int i = lineStart; i < lineEnd; i++)
+                    content.setCharAt(write++, content.charAt(i));
+            }
+            lineStart = lineEnd + 1;
+        }
 
-        return parsedContent;
+        content.setLength(write);
     }
 
 }